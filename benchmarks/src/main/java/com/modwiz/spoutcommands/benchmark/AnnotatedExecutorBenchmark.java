@@ -0,0 +1,111 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.benchmark;
+
+import com.modwiz.spoutcommands.Command;
+import com.modwiz.spoutcommands.CommandArguments;
+import com.modwiz.spoutcommands.CommandManager;
+import com.modwiz.spoutcommands.CommandSource;
+import com.modwiz.spoutcommands.annotations.AnnotatedCommandExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures invocation of an annotated command method, directly through its
+ * executor and through a full dispatch, and of a method with typed
+ * parameters bound from the arguments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AnnotatedExecutorBenchmark {
+    /**
+     * Number of arguments passed to the command.
+     */
+    @Param({"0", "8"})
+    public int argLength;
+
+    private Command command;
+    private AnnotatedCommandExecutor executor, typedExecutor;
+    private StubCommandSource source;
+    private CommandArguments args;
+    private String[] raw, typedRaw;
+
+    public static class Handlers {
+        private int calls;
+
+        @com.modwiz.spoutcommands.annotations.Command(aliases = {"bench"}, desc = "Benchmark command")
+        public void bench(CommandSource source, CommandArguments args) {
+            calls += args.length();
+        }
+
+        @com.modwiz.spoutcommands.annotations.Command(aliases = {"typed"}, desc = "Typed benchmark command")
+        public void typed(CommandSource source, String item, int amount) {
+            calls += amount;
+        }
+    }
+
+    @Setup
+    public void setup() throws NoSuchMethodException {
+        // bind the executor directly, registering through the factory needs a server
+        Handlers handlers = new Handlers();
+        executor = new AnnotatedCommandExecutor(handlers,
+                Handlers.class.getMethod("bench", CommandSource.class, CommandArguments.class));
+        typedExecutor = new AnnotatedCommandExecutor(handlers,
+                Handlers.class.getMethod("typed", CommandSource.class, String.class, int.class));
+        command = new CommandManager().getCommand("bench").setExecutor(executor);
+
+        raw = new String[argLength];
+        for (int i = 0; i < argLength; i++) {
+            raw[i] = "arg" + i;
+        }
+        args = new CommandArguments(raw);
+        typedRaw = new String[] {"stone", "64"};
+        source = new StubCommandSource();
+    }
+
+    @Benchmark
+    public void invoke() {
+        executor.execute(source, command, args);
+    }
+
+    // fresh arguments each time, so the conversion is not served from the cache
+    @Benchmark
+    public void invokeTyped() {
+        typedExecutor.execute(source, command, new CommandArguments(typedRaw));
+    }
+
+    @Benchmark
+    public void dispatch() {
+        command.execute(source, raw);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.benchmark;
+
+import com.modwiz.spoutcommands.CommandArguments;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CommandArguments} construction and parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ArgumentsBenchmark {
+    /**
+     * Number of arguments passed to the command.
+     */
+    @Param({"1", "8", "64"})
+    public int argLength;
+
+    private String[] raw, invalid;
+    private CommandArguments args;
+    private int last, decimal;
+
+    @Setup
+    public void setup() {
+        raw = new String[argLength];
+        for (int i = 0; i < argLength; i++) {
+            raw[i] = i % 2 == 0 ? Integer.toString(12345 + i * 31) : (i + 0.25) + "";
+        }
+        args = new CommandArguments(raw);
+        // a copy whose last token is never an integer, to measure the failure path
+        invalid = raw.clone();
+        invalid[argLength - 1] = "notanumber";
+        last = argLength - 1;
+        decimal = argLength > 1 ? 1 : 0;
+    }
+
+    @Benchmark
+    public CommandArguments construct() {
+        return new CommandArguments(raw);
+    }
+
+    // fresh arguments each time, so the parse is not served from the cache
+    @Benchmark
+    public int getInteger() {
+        return new CommandArguments(raw).getInteger(0);
+    }
+
+    @Benchmark
+    public boolean isIntegerInvalid() {
+        return new CommandArguments(invalid).isInteger(last);
+    }
+
+    @Benchmark
+    public int getIntegerOrInvalid() {
+        return new CommandArguments(invalid).getIntegerOr(last, -1);
+    }
+
+    @Benchmark
+    public double getDouble() {
+        return new CommandArguments(raw).getDouble(decimal);
+    }
+
+    @Benchmark
+    public String getJoinedString() {
+        return args.getJoinedString(0);
+    }
+}
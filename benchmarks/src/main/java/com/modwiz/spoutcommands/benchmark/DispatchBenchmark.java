@@ -0,0 +1,132 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.benchmark;
+
+import com.modwiz.spoutcommands.Command;
+import com.modwiz.spoutcommands.CommandArguments;
+import com.modwiz.spoutcommands.CommandManager;
+import com.modwiz.spoutcommands.CommandSource;
+import com.modwiz.spoutcommands.Executor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures root lookup and nested subcommand dispatch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    /**
+     * Number of root commands, and of children at each nested level.
+     */
+    @Param({"10", "100", "1000"})
+    public int treeSize;
+
+    /**
+     * Number of extra aliases registered for every command.
+     */
+    @Param({"0", "4"})
+    public int aliasCount;
+
+    /**
+     * Number of plain arguments following the subcommand path.
+     */
+    @Param({"0", "8"})
+    public int argLength;
+
+    private CommandManager manager;
+    private Command root;
+    private StubCommandSource source;
+    private String rootAlias;
+    private String[] nestedArgs;
+    private int executed;
+
+    @Setup
+    public void setup() {
+        Executor executor = new Executor() {
+            public void execute(CommandSource source, Command command, CommandArguments args) {
+                executed += args.length();
+            }
+        };
+
+        manager = new CommandManager();
+        for (int i = 0; i < treeSize; i++) {
+            Command command = manager.getCommand("root" + i).setExecutor(executor);
+            addAliases(command, "r" + i);
+        }
+
+        // three nested levels below the last root, e.g. /root flag set <args>
+        root = manager.getCommand("root" + (treeSize - 1));
+        Command parent = root;
+        for (int depth = 0; depth < 3; depth++) {
+            Command next = null;
+            for (int i = 0; i < treeSize; i++) {
+                Command child = parent.getChild("sub" + depth + "x" + i).setExecutor(executor);
+                addAliases(child, "s" + depth + "x" + i);
+                next = child;
+            }
+            parent = next;
+        }
+
+        rootAlias = aliasCount > 0 ? "R" + (treeSize - 1) + "A" + (aliasCount - 1) : "ROOT" + (treeSize - 1);
+        nestedArgs = new String[3 + argLength];
+        for (int depth = 0; depth < 3; depth++) {
+            nestedArgs[depth] = "SUB" + depth + "X" + (treeSize - 1);
+        }
+        for (int i = 0; i < argLength; i++) {
+            nestedArgs[3 + i] = "arg" + i;
+        }
+        source = new StubCommandSource();
+    }
+
+    private void addAliases(Command command, String prefix) {
+        for (int a = 0; a < aliasCount; a++) {
+            command.addAlias(prefix + "a" + a);
+        }
+    }
+
+    @Benchmark
+    public Command rootLookup() {
+        return manager.getCommand(rootAlias, false);
+    }
+
+    @Benchmark
+    public void nestedExecute() {
+        root.execute(source, nestedArgs);
+    }
+
+    @Benchmark
+    public void lookupAndExecute() {
+        manager.getCommand(rootAlias, false).execute(source, nestedArgs);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.benchmark;
+
+import com.modwiz.spoutcommands.CommandSource;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionAttachment;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A {@link CommandSource} that holds every permission and discards all
+ * output, so commands can be dispatched without a running server.
+ */
+public class StubCommandSource implements CommandSource {
+    private int messages;
+
+    /**
+     * Returns the number of messages sent to this source.
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    public void processCommand(String command, String... args) {
+    }
+
+    public void sendMessage(String message) {
+        messages++;
+    }
+
+    public void sendMessage(String[] messages) {
+        this.messages += messages.length;
+    }
+
+    public CommandSender getSender() {
+        return this;
+    }
+
+    public Server getServer() {
+        return null;
+    }
+
+    public String getName() {
+        return "Benchmark";
+    }
+
+    public boolean isPermissionSet(String name) {
+        return true;
+    }
+
+    public boolean isPermissionSet(Permission perm) {
+        return true;
+    }
+
+    public boolean hasPermission(String name) {
+        return true;
+    }
+
+    public boolean hasPermission(Permission perm) {
+        return true;
+    }
+
+    public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value) {
+        return null;
+    }
+
+    public PermissionAttachment addAttachment(Plugin plugin) {
+        return null;
+    }
+
+    public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value, int ticks) {
+        return null;
+    }
+
+    public PermissionAttachment addAttachment(Plugin plugin, int ticks) {
+        return null;
+    }
+
+    public void removeAttachment(PermissionAttachment attachment) {
+    }
+
+    public void recalculatePermissions() {
+    }
+
+    public Set<PermissionAttachmentInfo> getEffectivePermissions() {
+        return Collections.emptySet();
+    }
+
+    public boolean isOp() {
+        return true;
+    }
+
+    public void setOp(boolean value) {
+    }
+}
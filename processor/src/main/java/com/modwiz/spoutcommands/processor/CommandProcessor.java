@@ -0,0 +1,450 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Validates {@code @Command} methods at compile time and generates a
+ * {@code CommandRegistrar} for every class declaring them, which registers
+ * the methods with direct calls instead of reflection.
+ */
+@SupportedAnnotationTypes(CommandProcessor.COMMAND)
+public class CommandProcessor extends AbstractProcessor {
+    static final String COMMAND = "com.modwiz.spoutcommands.annotations.Command";
+    private static final String SOURCE = "com.modwiz.spoutcommands.CommandSource";
+    private static final String ARGUMENTS = "com.modwiz.spoutcommands.CommandArguments";
+    private static final String REMAINING = "java.lang.String[]";
+    private static final String CONSTRAINTS = "com.modwiz.spoutcommands.ArgumentConstraints";
+    private static final String RANGE = "com.modwiz.spoutcommands.annotations.Range";
+    private static final String MATCHES = "com.modwiz.spoutcommands.annotations.Matches";
+    private static final String ONE_OF = "com.modwiz.spoutcommands.annotations.OneOf";
+    private static final String LENGTH = "com.modwiz.spoutcommands.annotations.Length";
+    private static final Map<String, String> ACCESSORS = new HashMap<String, String>();
+    private final Set<String> generated = new HashSet<String>();
+
+    static {
+        ACCESSORS.put("java.lang.String", "getString");
+        ACCESSORS.put("int", "getInteger");
+        ACCESSORS.put("java.lang.Integer", "getInteger");
+        ACCESSORS.put("long", "getLong");
+        ACCESSORS.put("java.lang.Long", "getLong");
+        ACCESSORS.put("double", "getDouble");
+        ACCESSORS.put("java.lang.Double", "getDouble");
+        ACCESSORS.put("float", "getFloat");
+        ACCESSORS.put("java.lang.Float", "getFloat");
+        ACCESSORS.put("boolean", "getBoolean");
+        ACCESSORS.put("java.lang.Boolean", "getBoolean");
+        ACCESSORS.put("org.bukkit.entity.Player", "getPlayer");
+        ACCESSORS.put("org.bukkit.World", "getWorld");
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(COMMAND);
+        if (annotation == null) {
+            return false;
+        }
+
+        Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (validate((ExecutableElement) element, true)) {
+                types.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+
+        for (TypeElement type : types) {
+            if (isRegistrable(type)) {
+                generate(type);
+            }
+        }
+        // leave the annotations to other processors as well
+        return false;
+    }
+
+    /**
+     * Returns true if the method can be registered, optionally reporting an
+     * error for every way it cannot.
+     */
+    private boolean validate(ExecutableElement method, boolean report) {
+        boolean valid = true;
+        Set<Modifier> modifiers = method.getModifiers();
+        if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.ABSTRACT)) {
+            valid = error(report, method, "@Command methods must be public, non-static and non-abstract");
+        }
+
+        List<? extends VariableElement> params = method.getParameters();
+        if (params.isEmpty() || !isType(params.get(0), SOURCE) || (!hasArgumentsParameter(method) && getAccessors(method) == null)) {
+            valid = error(report, method, "@Command methods must take a CommandSource followed by either "
+                    + "CommandArguments or parameters of supported types");
+        }
+
+        List<?> aliases = (List<?>) getValue(getCommand(method), "aliases");
+        if (aliases.isEmpty()) {
+            valid = error(report, method, "@Command needs at least one alias");
+        }
+
+        for (int i = 1; i < params.size(); i++) {
+            for (AnnotationMirror constraint : params.get(i).getAnnotationMirrors()) {
+                String name = getName(constraint);
+                if (!name.equals(RANGE) && !name.equals(MATCHES) && !name.equals(ONE_OF) && !name.equals(LENGTH)) {
+                    continue;
+                }
+                if (hasArgumentsParameter(method) || isType(params.get(i), REMAINING)) {
+                    valid = error(report, params.get(i), "Only typed single arguments can be constrained");
+                } else if (name.equals(MATCHES)) {
+                    try {
+                        Pattern.compile((String) getValue(constraint, "value"));
+                    } catch (PatternSyntaxException e) {
+                        valid = error(report, params.get(i), "Invalid pattern: " + e.getDescription());
+                    }
+                }
+            }
+        }
+        return valid;
+    }
+
+    private boolean isType(VariableElement param, String type) {
+        return typeName(param).equals(type);
+    }
+
+    private String typeName(VariableElement param) {
+        return processingEnv.getTypeUtils().erasure(param.asType()).toString();
+    }
+
+    private boolean hasArgumentsParameter(ExecutableElement method) {
+        List<? extends VariableElement> params = method.getParameters();
+        return params.size() == 2 && isType(params.get(1), ARGUMENTS);
+    }
+
+    /**
+     * Returns the argument accessors of the method's typed parameters after
+     * the source, with null for trailing remaining arguments, or null if a
+     * parameter has an unsupported type.
+     */
+    private List<String> getAccessors(ExecutableElement method) {
+        List<? extends VariableElement> params = method.getParameters();
+        List<String> accessors = new ArrayList<String>();
+        for (int i = 1; i < params.size(); i++) {
+            String accessor = ACCESSORS.get(typeName(params.get(i)));
+            if (accessor == null && !(i == params.size() - 1 && isType(params.get(i), REMAINING))) {
+                return null;
+            }
+            accessors.add(accessor);
+        }
+        return accessors;
+    }
+
+    /**
+     * Returns true if a registrar in the same package can refer to the type
+     * and its instances.
+     */
+    private boolean isRegistrable(TypeElement type) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            TypeElement t = (TypeElement) e;
+            if (t.getNestingKind() == NestingKind.MEMBER && !t.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+            if (t.getNestingKind() == NestingKind.LOCAL || t.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+        return !type.getModifiers().contains(Modifier.ABSTRACT) && type.getKind() == ElementKind.CLASS;
+    }
+
+    private void generate(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String qualifiedName = binaryName + "$CommandRegistrar";
+        if (!generated.add(qualifiedName)) {
+            return;
+        }
+        String simpleName = pkg.isUnnamed() ? qualifiedName : qualifiedName.substring(pkg.getQualifiedName().length() + 1);
+        String typeName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        List<ExecutableElement> methods = new ArrayList<ExecutableElement>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(type)) {
+            if (member.getKind() == ElementKind.METHOD && getCommand(member) != null
+                    && validate((ExecutableElement) member, false)) {
+                methods.add((ExecutableElement) member);
+            }
+        }
+
+        try {
+            PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter());
+            try {
+                if (!pkg.isUnnamed()) {
+                    out.println("package " + pkg.getQualifiedName() + ";");
+                    out.println();
+                }
+                out.println("/**");
+                out.println(" * Generated by " + CommandProcessor.class.getName() + ", do not edit.");
+                out.println(" */");
+                out.println("public final class " + simpleName + " implements com.modwiz.spoutcommands.annotations.CommandRegistrar<" + typeName + "> {");
+                out.println("    public void register(final " + typeName + " instance, com.modwiz.spoutcommands.annotations.CommandRegistrar.Binder binder) {");
+                for (ExecutableElement method : methods) {
+                    writeBinding(out, method);
+                }
+                out.println("    }");
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            error(true, type, "Could not generate command registrar: " + e.getMessage());
+        }
+    }
+
+    private void writeBinding(PrintWriter out, ExecutableElement method) {
+        AnnotationMirror command = getCommand(method);
+        StringBuilder aliases = new StringBuilder();
+        for (Object alias : (List<?>) getValue(command, "aliases")) {
+            if (aliases.length() > 0) {
+                aliases.append(", ");
+            }
+            aliases.append(literal((String) ((AnnotationValue) alias).getValue()));
+        }
+
+        out.println("        binder.bind(new com.modwiz.spoutcommands.annotations.CommandDefinition(" + aliases + ")");
+        out.println("                .usage(" + literal((String) getValue(command, "usage")) + ")");
+        out.println("                .desc(" + literal((String) getValue(command, "desc")) + ")");
+        out.println("                .bounds(" + getBounds(method, command) + ")");
+        out.println("                .async(" + getValue(command, "async") + ")");
+        out.println("                .flags(" + getValue(command, "flags") + ")");
+        out.println("                .cooldown(" + getValue(command, "cooldown") + "L)");
+        List<String> constraints = getConstraints(method);
+        out.println("                .rate(" + getValue(command, "rate") + ", " + getValue(command, "ratePeriod") + "L)"
+                + (constraints == null ? "," : ""));
+        if (constraints != null) {
+            out.println("                .constraints(" + join(constraints) + "),");
+        }
+        out.println("            new com.modwiz.spoutcommands.Executor() {");
+        out.println("                public void execute(com.modwiz.spoutcommands.CommandSource source, com.modwiz.spoutcommands.Command command, com.modwiz.spoutcommands.CommandArguments args) {");
+        out.println("                    try {");
+        out.println("                        instance." + method.getSimpleName() + "(" + getArguments(method) + ");");
+        out.println("                    } catch (org.bukkit.command.CommandException e) {");
+        out.println("                        throw e;");
+        out.println("                    } catch (Exception e) {");
+        out.println("                        throw new com.modwiz.spoutcommands.CommandRejectedException(");
+        out.println("                                com.modwiz.spoutcommands.CommandRejectedException.Reason.ERROR, e.getMessage(), e);");
+        out.println("                    }");
+        out.println("                }");
+        out.println("            });");
+    }
+
+    /**
+     * Returns the argument bounds of the command. Typed parameters imply the
+     * bounds unless the annotation gives them.
+     */
+    private String getBounds(ExecutableElement method, AnnotationMirror command) {
+        int min = (Integer) getValue(command, "min");
+        int max = (Integer) getValue(command, "max");
+        if (!hasArgumentsParameter(method) && min == 0 && max == -1) {
+            List<String> accessors = getAccessors(method);
+            boolean remaining = !accessors.isEmpty() && accessors.get(accessors.size() - 1) == null;
+            min = remaining ? accessors.size() - 1 : accessors.size();
+            max = remaining ? -1 : min;
+        }
+        return min + ", " + max;
+    }
+
+    /**
+     * Returns the expressions passed to the method in the generated executor.
+     */
+    private String getArguments(ExecutableElement method) {
+        if (hasArgumentsParameter(method)) {
+            return "source, args";
+        }
+        StringBuilder arguments = new StringBuilder("source");
+        List<String> accessors = getAccessors(method);
+        for (int i = 0; i < accessors.size(); i++) {
+            arguments.append(", args.").append(accessors.get(i) == null ? "getStrings" : accessors.get(i)).append('(').append(i).append(')');
+        }
+        return arguments.toString();
+    }
+
+    /**
+     * Returns the expressions creating the constraints of the method's typed
+     * parameters, by argument index, or null if none is constrained.
+     */
+    private List<String> getConstraints(ExecutableElement method) {
+        if (hasArgumentsParameter(method)) {
+            return null;
+        }
+        List<? extends VariableElement> params = method.getParameters();
+        List<String> constraints = new ArrayList<String>();
+        boolean constrained = false;
+        for (int i = 1; i < params.size(); i++) {
+            List<String> parameter = new ArrayList<String>();
+            for (AnnotationMirror mirror : params.get(i).getAnnotationMirrors()) {
+                String name = getName(mirror);
+                if (name.equals(RANGE)) {
+                    parameter.add(CONSTRAINTS + ".range(" + literal((Double) getValue(mirror, "min")) + ", "
+                            + literal((Double) getValue(mirror, "max")) + ")");
+                } else if (name.equals(MATCHES)) {
+                    parameter.add(CONSTRAINTS + ".pattern(" + literal((String) getValue(mirror, "value")) + ")");
+                } else if (name.equals(ONE_OF)) {
+                    List<String> values = new ArrayList<String>();
+                    for (Object value : (List<?>) getValue(mirror, "value")) {
+                        values.add(literal((String) ((AnnotationValue) value).getValue()));
+                    }
+                    parameter.add(CONSTRAINTS + ".oneOf(" + join(values) + ")");
+                } else if (name.equals(LENGTH)) {
+                    parameter.add(CONSTRAINTS + ".length(" + getValue(mirror, "min") + ", " + getValue(mirror, "max") + ")");
+                }
+            }
+            constrained |= !parameter.isEmpty();
+            constraints.add(parameter.isEmpty() ? "null"
+                    : parameter.size() == 1 ? parameter.get(0) : CONSTRAINTS + ".all(" + join(parameter) + ")");
+        }
+        return constrained ? constraints : null;
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private AnnotationMirror getCommand(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (getName(mirror).equals(COMMAND)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static String getName(AnnotationMirror mirror) {
+        return ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+    }
+
+    /**
+     * Returns the value of an annotation attribute, falling back to its
+     * default.
+     */
+    private Object getValue(AnnotationMirror mirror, String name) {
+        Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalArgumentException("No attribute " + name + " on " + mirror);
+    }
+
+    private static String literal(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return Double.toString(value);
+    }
+
+    private static String literal(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Reports the error if requested.
+     *
+     * @return false
+     */
+    private boolean error(boolean report, Element element, String message) {
+        if (report) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+        }
+        return false;
+    }
+}
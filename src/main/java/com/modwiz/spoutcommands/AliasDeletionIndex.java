@@ -0,0 +1,189 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index for finding the aliases within a small edit distance of a
+ * mistyped one. Every normalized alias is indexed under each string left
+ * after deleting up to {@link #MAX_DISTANCE} of its characters. Two strings
+ * within that Levenshtein distance of each other share such a string, so
+ * a search only looks up the deletions of the typed alias and checks the
+ * few aliases found, however many the index holds. An index is built once
+ * per published {@link AliasIndex} table and not changed afterwards.
+ */
+class AliasDeletionIndex {
+    static final int MAX_DISTANCE = 2;
+    private final Map<String, List<Entry>> deletions = new HashMap<String, List<Entry>>();
+    private int longest;
+
+    private static class Entry {
+        private final String key, alias;
+        private final Command command;
+
+        private Entry(String key, String alias, Command command) {
+            this.key = key;
+            this.alias = alias;
+            this.command = command;
+        }
+    }
+
+    /**
+     * A command found within the searched distance.
+     */
+    static class Match implements Comparable<Match> {
+        final String alias;
+        final Command command;
+        final int distance;
+
+        private Match(String alias, Command command, int distance) {
+            this.alias = alias;
+            this.command = command;
+            this.distance = distance;
+        }
+
+        /**
+         * Orders nearer matches first, then a command's name before its
+         * other aliases.
+         */
+        public int compareTo(Match o) {
+            if (distance != o.distance) {
+                return distance - o.distance;
+            }
+            boolean name = alias.equalsIgnoreCase(command.getName());
+            if (name != o.alias.equalsIgnoreCase(o.command.getName())) {
+                return name ? -1 : 1;
+            }
+            return alias.compareTo(o.alias);
+        }
+    }
+
+    /**
+     * Adds the normalized key with the alias and the command it resolves to.
+     */
+    void put(String key, String alias, Command command) {
+        Entry entry = new Entry(key, alias, command);
+        longest = Math.max(longest, key.length());
+        for (String deletion : deletions(key, MAX_DISTANCE)) {
+            List<Entry> entries = deletions.get(deletion);
+            if (entries == null) {
+                deletions.put(deletion, entries = new ArrayList<Entry>(1));
+            }
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Adds every alias within the maximum distance, at most
+     * {@link #MAX_DISTANCE}, of the normalized key.
+     */
+    void search(String key, int maxDistance, List<Match> matches) {
+        // no alias is that close to a longer key; its deletions would cost O(length^2)
+        if (key.length() > longest + maxDistance) {
+            return;
+        }
+        Set<String> checked = new HashSet<String>();
+        for (String deletion : deletions(key, maxDistance)) {
+            List<Entry> entries = deletions.get(deletion);
+            if (entries == null) {
+                continue;
+            }
+            for (Entry entry : entries) {
+                if (checked.add(entry.key)) {
+                    int distance = distance(key, entry.key);
+                    if (distance <= maxDistance) {
+                        matches.add(new Match(entry.alias, entry.command, distance));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distinct strings left after deleting up to the specified
+     * number of characters, including the string itself.
+     */
+    private static Collection<String> deletions(String key, int count) {
+        Set<String> result = new HashSet<String>();
+        result.add(key);
+        List<String> level = new ArrayList<String>(result);
+        for (int i = 0; i < count; i++) {
+            List<String> next = new ArrayList<String>();
+            for (String str : level) {
+                if (str.isEmpty()) {
+                    continue;
+                }
+                char[] chars = str.toCharArray();
+                char[] buffer = new char[chars.length - 1];
+                str.getChars(1, chars.length, buffer, 0);
+                for (int j = 0; j < chars.length; j++) {
+                    // buffer holds str without the character at j
+                    if (j > 0) {
+                        buffer[j - 1] = chars[j - 1];
+                    }
+                    String deletion = new String(buffer);
+                    if (result.add(deletion)) {
+                        next.add(deletion);
+                    }
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Levenshtein distance between the strings.
+     */
+    static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitute = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
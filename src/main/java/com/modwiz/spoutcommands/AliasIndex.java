@@ -0,0 +1,288 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Case-insensitive lookup table from alias to {@link Command}.
+ * <p>
+ * Lookups read an immutable table of a {@link Registry.Snapshot} without
+ * locking. Changes are only made during an update of the owning
+ * {@link Registry}, to a copy of the table that is published with the
+ * next snapshot when the update ends. The thread doing the update sees its
+ * own changes immediately.
+ */
+class AliasIndex {
+    private final Registry registry;
+    private final int slot;
+    private Table working;
+
+    AliasIndex(Registry registry) {
+        this.registry = registry;
+        this.slot = registry.register();
+    }
+
+    /**
+     * Aliases and commands of an index. A published table is never changed;
+     * the views derived from it are built on first use, at most once per
+     * thread racing to build them.
+     */
+    static final class Table {
+        static final Table EMPTY = new Table();
+        private final Map<String, Command> index;
+        private final Map<String, String> aliases;
+        private volatile AliasTrie trie;
+        private volatile AliasDeletionIndex suggestions;
+        private volatile Set<Command> commands;
+
+        private Table() {
+            index = new HashMap<String, Command>();
+            aliases = new HashMap<String, String>();
+        }
+
+        private Table(Table table) {
+            index = new HashMap<String, Command>(table.index);
+            aliases = new HashMap<String, String>(table.aliases);
+        }
+
+        /**
+         * Returns the trie over the aliases, building it if needed.
+         */
+        private AliasTrie trie() {
+            AliasTrie trie = this.trie;
+            if (trie == null) {
+                trie = new AliasTrie();
+                for (Map.Entry<String, Command> entry : index.entrySet()) {
+                    trie.put(entry.getKey(), aliases.get(entry.getKey()), entry.getValue());
+                }
+                this.trie = trie;
+            }
+            return trie;
+        }
+
+        /**
+         * Returns the deletion index over the aliases, building it if needed.
+         */
+        private AliasDeletionIndex suggestions() {
+            AliasDeletionIndex suggestions = this.suggestions;
+            if (suggestions == null) {
+                suggestions = new AliasDeletionIndex();
+                for (Map.Entry<String, Command> entry : index.entrySet()) {
+                    suggestions.put(entry.getKey(), aliases.get(entry.getKey()), entry.getValue());
+                }
+                this.suggestions = suggestions;
+            }
+            return suggestions;
+        }
+
+        /**
+         * Returns the distinct commands in the table, collecting them if needed.
+         */
+        private Set<Command> commands() {
+            Set<Command> commands = this.commands;
+            if (commands == null) {
+                this.commands = commands = Collections.unmodifiableSet(new LinkedHashSet<Command>(index.values()));
+            }
+            return commands;
+        }
+
+        /**
+         * Drops the derived views after a change.
+         */
+        private void changed() {
+            trie = null;
+            suggestions = null;
+            commands = null;
+        }
+
+    }
+
+    /**
+     * Returns the key an alias is stored under.
+     */
+    static String normalize(String alias) {
+        return alias.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the table the calling thread should read in the snapshot.
+     */
+    private Table read(Registry.Snapshot snapshot) {
+        Table table = working;
+        return table != null && registry.isUpdating() ? table : snapshot.table(slot);
+    }
+
+    private Table read() {
+        return read(registry.acquire());
+    }
+
+    /**
+     * Returns the working copy of the table, creating it on the first change
+     * of an update.
+     */
+    private Table write() {
+        if (!registry.isUpdating()) {
+            throw new IllegalStateException("Aliases can only be changed during an update");
+        }
+        if (working == null) {
+            working = new Table(registry.acquire().table(slot));
+            registry.markDirty(this);
+        }
+        return working;
+    }
+
+    /**
+     * Returns the slot of this index's table in the snapshots.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the working copy to publish, ending the changes to it.
+     */
+    Table commit() {
+        Table table = working;
+        working = null;
+        return table;
+    }
+
+    /**
+     * Returns the command registered under the specified alias, or null.
+     */
+    Command get(String alias) {
+        return read().index.get(normalize(alias));
+    }
+
+    /**
+     * Returns the command registered under the alias in the snapshot, or
+     * null.
+     */
+    Command get(Registry.Snapshot snapshot, String alias) {
+        return read(snapshot).index.get(normalize(alias));
+    }
+
+    /**
+     * Returns the distinct commands registered in this index.
+     */
+    Set<Command> getCommands() {
+        return read().commands();
+    }
+
+    /**
+     * Returns the distinct commands registered in this index in the
+     * snapshot.
+     */
+    Set<Command> getCommands(Registry.Snapshot snapshot) {
+        return read(snapshot).commands();
+    }
+
+    /**
+     * Indexes the aliases for the specified command. Nothing is indexed if
+     * any of the aliases already belongs to another command. Must be called
+     * during an update.
+     *
+     * @throws IllegalArgumentException if an alias is taken by another command
+     */
+    void add(Command command, Collection<String> aliases) {
+        Table table = write();
+        for (String alias : aliases) {
+            Command existing = table.index.get(normalize(alias));
+            if (existing != null && existing != command) {
+                throw new IllegalArgumentException("Alias '" + alias + "' of command '" + command.getName()
+                        + "' is already registered to command '" + existing.getName() + "'");
+            }
+        }
+
+        for (String alias : aliases) {
+            String key = normalize(alias);
+            if (table.index.put(key, command) == null) {
+                table.aliases.put(key, alias);
+            }
+        }
+        table.changed();
+    }
+
+    /**
+     * Drops the specified aliases of a command from the index, unless the
+     * command is still recognized under them. Must be called during an
+     * update.
+     */
+    void remove(Command command, Collection<String> aliases) {
+        Table table = write();
+        for (String alias : aliases) {
+            String key = normalize(alias);
+            if (table.index.get(key) == command && !command.hasAlias(key)) {
+                table.index.remove(key);
+                table.aliases.remove(key);
+            }
+        }
+        table.changed();
+    }
+
+    /**
+     * Adds the aliases starting with the specified prefix whose commands the
+     * source is permitted to use.
+     */
+    void complete(Registry.Snapshot snapshot, String prefix, CommandSource source, List<String> completions) {
+        read(snapshot).trie().complete(normalize(prefix), source, completions);
+    }
+
+    /**
+     * Adds up to the limit of aliases closest to the specified one, nearest
+     * first, at most one per command and only of commands the source is
+     * permitted to use. Aliases of up to three characters may be one edit
+     * away, longer ones two.
+     */
+    void suggest(String alias, CommandSource source, int limit, List<String> suggestions) {
+        String key = normalize(alias);
+        List<AliasDeletionIndex.Match> matches = new ArrayList<AliasDeletionIndex.Match>();
+        read().suggestions().search(key, key.length() <= 3 ? 1 : AliasDeletionIndex.MAX_DISTANCE, matches);
+        Collections.sort(matches);
+
+        Set<Command> suggested = Collections.newSetFromMap(new IdentityHashMap<Command, Boolean>());
+        for (AliasDeletionIndex.Match match : matches) {
+            if (suggestions.size() >= limit) {
+                break;
+            }
+            if (suggested.add(match.command) && match.command.isPermitted(source)) {
+                suggestions.add(match.alias);
+            }
+        }
+    }
+}
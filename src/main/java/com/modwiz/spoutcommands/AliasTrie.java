@@ -0,0 +1,90 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Prefix trie over normalized aliases, used to complete partially typed
+ * command names in time proportional to the prefix and the matches. A trie
+ * is built once per published {@link AliasIndex} table and not changed
+ * afterwards.
+ */
+class AliasTrie {
+    private final Node root = new Node();
+
+    private static class Node {
+        private final Map<Character, Node> children = new TreeMap<Character, Node>();
+        private String alias;
+        private Command command;
+    }
+
+    /**
+     * Maps the normalized key to the alias and the command it resolves to.
+     */
+    void put(String key, String alias, Command command) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            Character c = key.charAt(i);
+            Node next = node.children.get(c);
+            if (next == null) {
+                node.children.put(c, next = new Node());
+            }
+            node = next;
+        }
+        if (node.command == null) {
+            node.alias = alias;
+        }
+        node.command = command;
+    }
+
+    /**
+     * Adds every alias starting with the normalized prefix, in alphabetical
+     * order, that the source is permitted to use.
+     */
+    void complete(String prefix, CommandSource source, List<String> completions) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        if (node != null) {
+            collect(node, source, completions);
+        }
+    }
+
+    private static void collect(Node node, CommandSource source, List<String> completions) {
+        if (node.command != null && node.command.isPermitted(source)) {
+            completions.add(node.alias);
+        }
+        for (Node child : node.children.values()) {
+            collect(child, source, completions);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Common {@link ArgumentCompleter} implementations.
+ */
+public final class ArgumentCompleters {
+    /**
+     * Completes the names of online players.
+     */
+    public static final ArgumentCompleter PLAYERS = new ArgumentCompleter() {
+        public void complete(CommandSource source, String prefix, List<String> completions) {
+            PlayerIndex index = PlayerIndex.getInstance();
+            if (index != null) {
+                index.complete(prefix, completions);
+                return;
+            }
+            for (Player player : Bukkit.getServer().getOnlinePlayers()) {
+                addIfMatches(player.getName(), prefix, completions);
+            }
+        }
+    };
+
+    /**
+     * Completes the names of loaded worlds.
+     */
+    public static final ArgumentCompleter WORLDS = new ArgumentCompleter() {
+        public void complete(CommandSource source, String prefix, List<String> completions) {
+            for (World world : Bukkit.getServer().getWorlds()) {
+                addIfMatches(world.getName(), prefix, completions);
+            }
+        }
+    };
+
+    private ArgumentCompleters() {
+    }
+
+    /**
+     * Returns a completer for a fixed set of values.
+     */
+    public static ArgumentCompleter of(String... values) {
+        final List<String> choices = Arrays.asList(values.clone());
+        return new ArgumentCompleter() {
+            public void complete(CommandSource source, String prefix, List<String> completions) {
+                for (String choice : choices) {
+                    addIfMatches(choice, prefix, completions);
+                }
+            }
+        };
+    }
+
+    private static void addIfMatches(String value, String prefix, List<String> completions) {
+        if (value.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            completions.add(value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Common {@link ArgumentConstraint} implementations. Everything a
+ * constraint needs, such as a compiled pattern, is prepared when it is
+ * created, so checking an argument does no setup work.
+ */
+public final class ArgumentConstraints {
+    private ArgumentConstraints() {
+    }
+
+    /**
+     * Returns a constraint accepting numbers between the bounds, inclusive.
+     * NaN is never accepted.
+     */
+    public static ArgumentConstraint range(final double min, final double max) {
+        final String minText = format(min), maxText = format(max);
+        return new ArgumentConstraint() {
+            public CommandRejectedException check(CommandArguments args, int index) {
+                if (!args.isDouble(index)) {
+                    return invalid("Expected a number at index %d", index);
+                }
+                double value = args.getDoubleOr(index, 0);
+                // written so NaN, which compares false to everything, is rejected
+                if (!(value >= min && value <= max)) {
+                    return CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT,
+                            "Argument at index %d must be between %s and %s", index, minText, maxText);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a constraint accepting arguments entirely matching the
+     * regular expression, which is compiled once.
+     */
+    public static ArgumentConstraint pattern(String regex) {
+        final Pattern pattern = Pattern.compile(regex);
+        return new ArgumentConstraint() {
+            public CommandRejectedException check(CommandArguments args, int index) {
+                if (!pattern.matcher(args.getString(index)).matches()) {
+                    return invalid("Argument at index %d has an invalid format", index);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a constraint accepting one of the values, ignoring case.
+     */
+    public static ArgumentConstraint oneOf(String... values) {
+        final Set<String> choices = new HashSet<String>();
+        StringBuilder list = new StringBuilder();
+        for (String value : values) {
+            choices.add(AliasIndex.normalize(value));
+            list.append(list.length() == 0 ? "" : ", ").append(value);
+        }
+        final String choiceList = list.toString();
+        return new ArgumentConstraint() {
+            public CommandRejectedException check(CommandArguments args, int index) {
+                if (!choices.contains(AliasIndex.normalize(args.getString(index)))) {
+                    return CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT,
+                            "Argument at index %d must be one of: %s", index, choiceList);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a constraint accepting arguments with a length between the
+     * bounds, inclusive.
+     */
+    public static ArgumentConstraint length(final int min, final int max) {
+        return new ArgumentConstraint() {
+            public CommandRejectedException check(CommandArguments args, int index) {
+                int length = args.getString(index).length();
+                if (length < min || length > max) {
+                    return CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT,
+                            "Argument at index %d must be %d to %d characters long", index, min, max);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns a constraint accepting arguments that satisfy every one of the
+     * constraints, checked in order.
+     */
+    public static ArgumentConstraint all(ArgumentConstraint... constraints) {
+        if (constraints.length == 1) {
+            return constraints[0];
+        }
+        final ArgumentConstraint[] all = constraints.clone();
+        return new ArgumentConstraint() {
+            public CommandRejectedException check(CommandArguments args, int index) {
+                for (ArgumentConstraint constraint : all) {
+                    CommandRejectedException rejection = constraint.check(args, index);
+                    if (rejection != null) {
+                        return rejection;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static CommandRejectedException invalid(String format, int index) {
+        return CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT, format, index);
+    }
+
+    /**
+     * Returns the bound without a fraction if it is whole.
+     */
+    private static String format(double bound) {
+        return bound == Math.rint(bound) && Math.abs(bound) < 1e15 ? Long.toString((long) bound) : Double.toString(bound);
+    }
+}
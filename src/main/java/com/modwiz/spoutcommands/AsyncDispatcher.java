@@ -0,0 +1,236 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandException;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs {@link Command#isAsync() async} commands on a bounded worker pool.
+ * Messages the executor sends, and any {@link CommandException} it throws,
+ * are delivered to the source on the main thread through the scheduler.
+ */
+public class AsyncDispatcher {
+    private static final CommandRejectedException BUSY = CommandRejectedException.shared(
+            CommandRejectedException.Reason.BUSY, "The server is too busy to run this command, try again later.");
+    private final Plugin plugin;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a dispatcher.
+     *
+     * @param plugin to schedule main thread completions under
+     * @param threads number of worker threads
+     * @param queueCapacity number of commands that may wait for a worker
+     *                      before further ones are rejected
+     */
+    public AsyncDispatcher(Plugin plugin, int threads, int queueCapacity) {
+        this.plugin = plugin;
+        this.pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerFactory(plugin.getName()));
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the command for execution on a worker thread.
+     *
+     * @param path the names the command was dispatched by, see
+     *        {@link Command#invoke(CommandSource, CommandArguments, String)}
+     * @param execution being audited, recorded once the command has run,
+     *        or null
+     * @return the rejection if the queue is full, otherwise null
+     */
+    CommandRejectedException dispatch(final CommandSource source, final Command command, final CommandArguments args, final String path,
+            final AuditLog.Execution execution) {
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    DeferredCommandSource deferred = new DeferredCommandSource(source);
+                    Throwable failure = null;
+                    try {
+                        command.invoke(deferred, args, path);
+                    } catch (CommandException ce) {
+                        failure = ce;
+                        deferred.sendMessage(ChatColor.RED + ce.getMessage());
+                    } catch (RuntimeException e) {
+                        failure = e;
+                        plugin.getLogger().log(Level.SEVERE, "Unhandled exception executing command '" + command.getName() + "'", e);
+                        deferred.sendMessage(ChatColor.RED + "An internal error occurred while executing this command.");
+                    } catch (Error e) {
+                        failure = e;
+                        throw e;
+                    } finally {
+                        complete(deferred);
+                        if (execution != null) {
+                            execution.complete(failure);
+                        }
+                    }
+                }
+            });
+            if (execution != null) {
+                execution.defer();
+            }
+            return null;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return BUSY;
+        }
+    }
+
+    private void complete(DeferredCommandSource deferred) {
+        if (!deferred.isEmpty() && plugin.isEnabled()) {
+            plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, deferred);
+        }
+    }
+
+    /**
+     * Returns the number of commands waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Returns the number of commands currently being executed.
+     */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Returns the number of commands rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting commands and waits for queued ones to finish.
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Buffers output produced on a worker thread and replays it on the main
+     * thread when run.
+     */
+    static class DeferredCommandSource extends WrappedCommandSource implements Runnable {
+        private final CommandSource source;
+        private final List<Runnable> output = new ArrayList<Runnable>();
+
+        private DeferredCommandSource(CommandSource source) {
+            super(source);
+            this.source = source;
+        }
+
+        /**
+         * Returns the source output is replayed to.
+         */
+        CommandSource getSource() {
+            return source;
+        }
+
+        @Override
+        public CommandSender getSender() {
+            return source.getSender();
+        }
+
+        @Override
+        public void sendMessage(final String message) {
+            defer(new Runnable() {
+                public void run() {
+                    source.sendMessage(message);
+                }
+            });
+        }
+
+        @Override
+        public void sendMessage(final String[] messages) {
+            defer(new Runnable() {
+                public void run() {
+                    source.sendMessage(messages);
+                }
+            });
+        }
+
+        @Override
+        public void processCommand(final String command, final String... args) {
+            defer(new Runnable() {
+                public void run() {
+                    source.processCommand(command, args);
+                }
+            });
+        }
+
+        private synchronized void defer(Runnable action) {
+            output.add(action);
+        }
+
+        synchronized boolean isEmpty() {
+            return output.isEmpty();
+        }
+
+        public synchronized void run() {
+            for (Runnable action : output) {
+                action.run();
+            }
+            output.clear();
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        private WorkerFactory(String name) {
+            this.prefix = name + " Command Worker #";
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
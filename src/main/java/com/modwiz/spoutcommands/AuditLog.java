@@ -0,0 +1,542 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.command.CommandException;
+import org.bukkit.plugin.Plugin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Append-only audit trail of executed commands.
+ * <p>
+ * Dispatch only adds a record to a lock-free {@link RingBuffer}; records
+ * are dropped rather than blocking if it is full. A background thread,
+ * woken every 100ms or whenever half the buffer has filled, drains it in
+ * batches and appends them through a
+ * {@link FileChannel} to {@code audit-<millis>.log} files, starting a new
+ * file once the current one reaches its size limit and deleting the oldest
+ * files beyond the configured count.
+ * <p>
+ * Every file is self-contained: a header with the time the file was
+ * started, followed by records of the time delta, latency, outcome, sender
+ * and command line, with numbers as varints and each sender's name only
+ * written on its first record in the file. Use a {@link Reader} to scan
+ * them.
+ */
+public class AuditLog implements Closeable {
+    private static final int MAGIC = 0x5343414c;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+    private static final String PREFIX = "audit-", SUFFIX = ".log";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private final Plugin plugin;
+    private final File directory;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final RingBuffer<Record> buffer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // state of the writer thread
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    private final Map<String, Integer> senders = new HashMap<String, Integer>();
+    private FileChannel channel;
+    private long fileSize, lastTime;
+
+    /**
+     * Creates an audit log and starts its writer thread.
+     *
+     * @param plugin to name the writer thread after and log errors to
+     * @param directory to write the log files to, created if missing
+     * @param capacity number of records that may wait for the writer
+     * @param maxFileSize size in bytes at which a new file is started
+     * @param maxFiles number of files to keep
+     */
+    public AuditLog(Plugin plugin, File directory, int capacity, long maxFileSize, int maxFiles) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create audit log directory " + directory);
+        }
+        this.plugin = plugin;
+        this.directory = directory;
+        this.maxFileSize = Math.max(maxFileSize, HEADER_SIZE + 1);
+        this.maxFiles = Math.max(maxFiles, 1);
+        this.buffer = new RingBuffer<Record>(capacity);
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, plugin.getName() + " Audit Writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static final class Record {
+        private final long time, nanos;
+        private final String sender, commandLine;
+        private final byte outcome;
+
+        private Record(long time, String sender, String commandLine, byte outcome, long nanos) {
+            this.time = time;
+            this.sender = sender;
+            this.commandLine = commandLine;
+            this.outcome = outcome;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Starts auditing an execution of the command, from now on.
+     */
+    Execution start(CommandSource source, Command command, CommandArguments args) {
+        return new Execution(this, source, command, args, System.nanoTime());
+    }
+
+    /**
+     * An execution being audited. It is recorded by the dispatching thread
+     * when the dispatch ends, unless it was deferred to the worker running
+     * the command, which records it once the command has run.
+     */
+    static final class Execution {
+        private final AuditLog log;
+        private final CommandSource source;
+        private final Command command;
+        private final CommandArguments args;
+        private final long start;
+        // dispatching thread only
+        private boolean deferred;
+
+        private Execution(AuditLog log, CommandSource source, Command command, CommandArguments args, long start) {
+            this.log = log;
+            this.source = source;
+            this.command = command;
+            this.args = args;
+            this.start = start;
+        }
+
+        /**
+         * Leaves the record to {@link #complete(Throwable)} on the worker.
+         * Called by the dispatching thread once the command is queued.
+         */
+        void defer() {
+            deferred = true;
+        }
+
+        /**
+         * Ends the dispatch, recording the execution unless it was deferred.
+         */
+        void end(Throwable failure) {
+            if (!deferred) {
+                complete(failure);
+            }
+        }
+
+        /**
+         * Records the execution with the outcome it ended with.
+         */
+        void complete(Throwable failure) {
+            log.record(source, command, args, failure, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Queues a record of an execution.
+     *
+     * @param failure the rejection, exception or error it ended with, or null
+     */
+    void record(CommandSource source, Command command, CommandArguments args, Throwable failure, long nanos) {
+        String commandLine = args.length() == 0 ? command.getName() : command.getName() + " " + args.getJoinedString(0);
+        Record record = new Record(System.currentTimeMillis(), source.getName(), commandLine, encode(failure), nanos);
+        long position = running ? buffer.offer(record) : -1;
+        if (position < 0) {
+            dropped.incrementAndGet();
+        } else if ((position & (buffer.capacity() / 2 - 1)) == 0) {
+            // wake the writer early in a burst rather than let the buffer fill
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static byte encode(Throwable failure) {
+        CommandRejectedException.Reason reason;
+        if (failure == null) {
+            return 0;
+        } else if (failure instanceof CommandRejectedException) {
+            reason = ((CommandRejectedException) failure).getReason();
+        } else if (failure instanceof CommandException) {
+            reason = CommandRejectedException.Reason.OTHER;
+        } else {
+            reason = CommandRejectedException.Reason.ERROR;
+        }
+        return (byte) (reason.ordinal() + 1);
+    }
+
+    /**
+     * Returns the number of records dropped because the writer fell behind
+     * or the log was closed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stops accepting records, writes the queued ones and closes the file.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                boolean stopping = !running;
+                Record record;
+                int count = 0;
+                while ((record = buffer.poll()) != null) {
+                    append(record);
+                    count++;
+                }
+                flush();
+                if (stopping) {
+                    break;
+                }
+                if (count == 0) {
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL);
+                }
+            }
+        } catch (IOException e) {
+            running = false;
+            plugin.getLogger().log(Level.SEVERE, "Audit log stopped after failing to write to " + directory, e);
+        } catch (RuntimeException e) {
+            running = false;
+            plugin.getLogger().log(Level.SEVERE, "Audit log stopped after an unexpected exception", e);
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void append(Record record) throws IOException {
+        byte[] sender = senders.containsKey(record.sender) ? null : record.sender.getBytes(UTF_8);
+        byte[] commandLine = record.commandLine.getBytes(UTF_8);
+        int size = size(sender, commandLine);
+        if (channel == null || (fileSize + out.position() + size > maxFileSize && fileSize + out.position() > HEADER_SIZE)) {
+            rotate(record.time);
+            // a new file knows no senders, so the name is written again
+            sender = record.sender.getBytes(UTF_8);
+            size = size(sender, commandLine);
+        }
+        if (out.remaining() < size) {
+            flush();
+        }
+
+        ByteBuffer out = size <= this.out.capacity() ? this.out : ByteBuffer.allocate(size);
+        putVarLong(out, zigZag(record.time - lastTime));
+        putVarLong(out, record.nanos / 1000);
+        out.put(record.outcome);
+        Integer id = senders.get(record.sender);
+        if (id == null) {
+            senders.put(record.sender, senders.size());
+            putVarLong(out, senders.size() - 1);
+            putVarLong(out, sender.length);
+            out.put(sender);
+        } else {
+            putVarLong(out, id);
+        }
+        putVarLong(out, commandLine.length);
+        out.put(commandLine);
+        lastTime = record.time;
+
+        if (out != this.out) {
+            out.flip();
+            while (out.hasRemaining()) {
+                fileSize += channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Returns the most bytes a record can take, writing the sender's name if
+     * it is given.
+     */
+    private static int size(byte[] sender, byte[] commandLine) {
+        return 10 + 10 + 1 + 5 + (sender == null ? 0 : 5 + sender.length) + 5 + commandLine.length;
+    }
+
+    private void flush() throws IOException {
+        if (out.position() > 0) {
+            out.flip();
+            while (out.hasRemaining()) {
+                fileSize += channel.write(out);
+            }
+            out.clear();
+        }
+    }
+
+    /**
+     * Starts a new file, deleting the oldest ones beyond the limit.
+     */
+    private void rotate(long time) throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+
+        File file = new File(directory, PREFIX + String.format("%013d", time) + SUFFIX);
+        for (long t = time; file.exists(); t++) {
+            file = new File(directory, PREFIX + String.format("%013d", t) + SUFFIX);
+        }
+        channel = new FileOutputStream(file, true).getChannel();
+        fileSize = 0;
+        senders.clear();
+        lastTime = time;
+        out.putInt(MAGIC).put(VERSION).putLong(time);
+
+        List<File> files = getFiles(directory);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            if (!files.get(i).delete()) {
+                plugin.getLogger().warning("Could not delete old audit log " + files.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the audit log files in the directory, oldest first.
+     */
+    public static List<File> getFiles(File directory) {
+        List<File> files = new ArrayList<File>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                if (file.getName().startsWith(PREFIX) && file.getName().endsWith(SUFFIX)) {
+                    files.add(file);
+                }
+            }
+        }
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * An executed command read back from an audit log file.
+     */
+    public static class Entry {
+        private final long time, latencyMicros;
+        private final String sender, commandLine;
+        private final CommandRejectedException.Reason outcome;
+
+        private Entry(long time, String sender, String commandLine, CommandRejectedException.Reason outcome, long latencyMicros) {
+            this.time = time;
+            this.sender = sender;
+            this.commandLine = commandLine;
+            this.outcome = outcome;
+            this.latencyMicros = latencyMicros;
+        }
+
+        /**
+         * Returns when the command was executed, in milliseconds since the epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the name of the source that executed the command.
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * Returns the command name followed by its arguments.
+         */
+        public String getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Returns true if the command was executed successfully; async
+         * commands are recorded once they have run.
+         */
+        public boolean isSuccess() {
+            return outcome == null;
+        }
+
+        /**
+         * Returns why the command failed, or null if it succeeded.
+         */
+        public CommandRejectedException.Reason getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Returns how long the dispatch took, in microseconds; for an async
+         * command, until it had run on its worker.
+         */
+        public long getLatencyMicros() {
+            return latencyMicros;
+        }
+
+        @Override
+        public String toString() {
+            return time + " " + sender + " /" + commandLine + " " + (outcome == null ? "OK" : outcome.name())
+                    + " " + latencyMicros + "us";
+        }
+    }
+
+    /**
+     * Reads the entries of an audit log file in order. The file is mapped
+     * into memory, so it can be scanned while it is still being written;
+     * entries written after it was opened are not read.
+     */
+    public static class Reader implements Closeable {
+        private final FileInputStream input;
+        private final ByteBuffer in;
+        private final List<String> senders = new ArrayList<String>();
+        private long lastTime;
+
+        /**
+         * Opens the file for reading.
+         *
+         * @throws IOException if the file is not an audit log
+         */
+        public Reader(File file) throws IOException {
+            input = new FileInputStream(file);
+            try {
+                FileChannel channel = input.getChannel();
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC || in.get() != VERSION) {
+                    throw new IOException(file + " is not an audit log");
+                }
+                lastTime = in.getLong();
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the next entry, or null at the end of the file.
+         *
+         * @throws IOException if the file is corrupt
+         */
+        public Entry next() throws IOException {
+            if (!in.hasRemaining()) {
+                return null;
+            }
+            try {
+                long time = lastTime + unZigZag(getVarLong(in));
+                long latency = getVarLong(in);
+                int outcome = in.get();
+                if (outcome < 0 || outcome > CommandRejectedException.Reason.values().length) {
+                    throw new IOException("Unknown outcome " + outcome);
+                }
+                int id = (int) getVarLong(in);
+                if (id == senders.size()) {
+                    senders.add(getString(in));
+                } else if (id > senders.size()) {
+                    throw new IOException("Unknown sender " + id);
+                }
+                String commandLine = getString(in);
+                lastTime = time;
+                return new Entry(time, senders.get(id), commandLine,
+                        outcome == 0 ? null : CommandRejectedException.Reason.values()[outcome - 1], latency);
+            } catch (BufferUnderflowException e) {
+                // the last record is incomplete, the log is still being written
+                return null;
+            }
+        }
+
+        private static String getString(ByteBuffer in) throws IOException {
+            byte[] bytes = new byte[(int) getVarLong(in)];
+            in.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
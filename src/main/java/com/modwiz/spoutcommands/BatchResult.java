@@ -0,0 +1,144 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of {@link CommandManager#executeBatch(CommandSource, List, boolean)}.
+ */
+public class BatchResult {
+    private final List<Line> lines = new ArrayList<Line>();
+    private final int submitted;
+    private long totalNanos;
+    private int failures;
+
+    BatchResult(int submitted) {
+        this.submitted = submitted;
+    }
+
+    void add(Line line) {
+        lines.add(line);
+        if (!line.isSuccess()) {
+            failures++;
+        }
+    }
+
+    void setTotalNanos(long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Returns the results of the lines that were executed, in order.
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Returns the number of lines that were executed.
+     */
+    public int getExecuted() {
+        return lines.size();
+    }
+
+    /**
+     * Returns the number of lines skipped after the batch stopped on a
+     * failure.
+     */
+    public int getSkipped() {
+        return submitted - lines.size();
+    }
+
+    /**
+     * Returns the number of lines that failed.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns true if every line was executed successfully.
+     */
+    public boolean isSuccess() {
+        return failures == 0 && getSkipped() == 0;
+    }
+
+    /**
+     * Returns the time the whole batch took in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Result of a single command line.
+     */
+    public static class Line {
+        private final String commandLine;
+        private final String error;
+        private final long nanos;
+
+        Line(String commandLine, String error, long nanos) {
+            this.commandLine = commandLine;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the command line as submitted.
+         */
+        public String getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Returns true if the command executed without an error. Async
+         * commands count as successful once they are queued.
+         */
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * Returns the error message, or null if the command succeeded.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Returns the time the line took in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+}
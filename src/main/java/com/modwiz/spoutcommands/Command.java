@@ -27,26 +27,71 @@
 
 package com.modwiz.spoutcommands;
 
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandException;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by starb_000 on 6/13/13.
+ * <p>
+ * Commands can be looked up and executed from any thread. Children and
+ * aliases change through the {@link Registry} of the tree, see
+ * {@link CommandManager#beginUpdate()}.
  */
 public class Command {
+    private static final CommandRejectedException NO_EXECUTOR = CommandRejectedException.shared(
+            CommandRejectedException.Reason.NO_EXECUTOR, "Command exists but no executor has been set.");
+    private static final CommandRejectedException NO_PERMISSION = CommandRejectedException.shared(
+            CommandRejectedException.Reason.PERMISSION, "You do not have permission to execute this command.");
+    static final int SUGGESTIONS = 3;
+    private final CommandManager manager;
+    private final Registry registry;
     private final String name;
-    private final List<String> aliases = new ArrayList<String>();
-    private final Set<Command> children = new HashSet<Command>();
+    private final List<String> aliases = new CopyOnWriteArrayList<String>();
+    private final AliasIndex childIndex;
+    private final CommandMetrics metrics = new CommandMetrics();
     private String help, usage, permission;
-    private int minArgs = 0, maxArgs = -1;
+    private int permissionId = -1;
+    private ArgumentBounds bounds = ArgumentBounds.UNBOUNDED;
+    private boolean async, commandLineParsing;
+    private ArgumentCompleter[] completers = new ArgumentCompleter[0];
+    private ArgumentConstraint[] constraints = new ArgumentConstraint[0];
+    private RateLimit cooldown, rateLimit;
+    private long slowThreshold;
     private Executor executor;
+    private AliasIndex index;
+    private volatile PluginCommand pluginCommand;
+
+    /**
+     * The minimum and maximum argument count, replaced together so a
+     * dispatch never sees one bound without the other.
+     */
+    private static final class ArgumentBounds {
+        private static final ArgumentBounds UNBOUNDED = new ArgumentBounds(0, -1);
+        private final int min, max;
+
+        private ArgumentBounds(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
 
     protected Command(String name, String... names) {
+        this(null, new Registry(), name, names);
+    }
+
+    Command(CommandManager manager, Registry registry, String name, String... names) {
+        this.manager = manager;
+        this.registry = registry;
+        this.childIndex = new AliasIndex(registry);
         this.name = name;
         aliases.addAll(Arrays.asList(names));
         aliases.add(name);
@@ -61,43 +106,420 @@ public class Command {
 
     /**
      * Executes the command in the executor it is currently set to.
+     * <p>
+     * The subcommand path is resolved in a single pass over the arguments
+     * with one alias index lookup per level. Lookups only allocate when an
+     * argument has to be lower-cased; a dispatch that descends into a child
+     * additionally costs one {@link CommandArguments} slice over the same
+     * backing array, however deep the child is. The source needs the
+     * permission of every command on the path, but only the command finally
+     * reached needs an executor and is checked against its argument bounds.
      */
     public void execute(CommandSource source, CommandArguments args) throws CommandException {
+        execute(source, args, null);
+    }
+
+    /**
+     * Executes the command, reusing and filling the specified permission
+     * results if not null.
+     */
+    void execute(CommandSource source, CommandArguments args, Map<Command, Boolean> permitted) throws CommandException {
+        CommandRejectedException rejection = dispatch(source, args, permitted);
+        if (rejection != null) {
+            throw rejection.unshared();
+        }
+    }
+
+    /**
+     * Executes the command, reporting any failure as a message instead of
+     * throwing it.
+     *
+     * @return the message to show the source, or null if the command ran
+     */
+    String tryExecute(CommandSource source, CommandArguments args, Map<Command, Boolean> permitted) {
+        CommandException failure;
+        try {
+            failure = dispatch(source, args, permitted);
+        } catch (CommandException ce) {
+            failure = ce;
+        }
+        if (failure == null) {
+            return null;
+        }
+        return failure.getMessage() == null ? "Command failed." : failure.getMessage();
+    }
+
+    /**
+     * Executes the command, returning a rejection by the command tree rather
+     * than throwing it. Exceptions of the executor are still thrown. The
+     * execution is recorded if the manager has an {@link AuditLog}; a
+     * command queued for async execution is recorded once it has run.
+     *
+     * @return the rejection, or null if the command ran or was queued
+     */
+    private CommandRejectedException dispatch(CommandSource source, CommandArguments args, Map<Command, Boolean> permitted) throws CommandException {
+        AuditLog auditLog = manager == null ? null : manager.getAuditLog();
+        if (auditLog == null) {
+            return resolve(source, args, permitted, null);
+        }
+
+        AuditLog.Execution execution = auditLog.start(source, this, args);
+        Throwable failure = null;
+        try {
+            CommandRejectedException rejection = resolve(source, args, permitted, execution);
+            failure = rejection;
+            return rejection;
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            execution.end(failure);
+        }
+    }
+
+    /**
+     * Resolves the subcommand path and invokes or queues the target.
+     *
+     * @param execution being audited, handed to the worker if the target is
+     *        queued, or null
+     * @return the rejection, or null if the command ran or was queued
+     */
+    private CommandRejectedException resolve(CommandSource source, CommandArguments args, Map<Command, Boolean> permitted,
+            AuditLog.Execution execution) throws CommandException {
+        // the whole path is resolved in one snapshot of the tree
+        Registry.Snapshot tree = registry.acquire();
+        int length = args.length();
+        Command command = this;
+        int offset = 0;
+        // the names walked, only needed to report slow executions
+        String path = manager == null || manager.getWatchdog() == null ? null : name;
+        while (offset < length) {
+            // descend into a child if applicable
+            Command child = command.childIndex.get(tree, args.getString0(offset));
+            if (child == null) {
+                break;
+            }
+            // a command passed through only needs its permission, not an
+            // executor or arguments of its own
+            if (!command.isPermitted(source, permitted)) {
+                command.metrics.recordFailure(CommandMetrics.Failure.PERMISSION);
+                return NO_PERMISSION;
+            }
+            command = child;
+            offset++;
+            if (path != null) {
+                path = path + " " + child.name;
+            }
+        }
+
+        // an unknown subcommand of a command that only groups others
+        if (offset < length && command.executor == null && !command.childIndex.getCommands(tree).isEmpty()
+                && command.isPermitted(source, permitted)) {
+            command.metrics.recordFailure(CommandMetrics.Failure.UNKNOWN_COMMAND);
+            String name = args.getString0(offset);
+            return new CommandRejectedException(CommandRejectedException.Reason.UNKNOWN_COMMAND,
+                    unknownMessage("subcommand", name, command.getSuggestions(source, name)));
+        }
+
+        args = args.slice(offset);
+        if (command.commandLineParsing && args.getCommandLine() == null) {
+            args = CommandLine.parse(args.getJoinedString(0)).toArguments();
+        }
+        // a limited sender is turned away before its arguments are looked at,
+        // but a permit is only taken once they have passed
+        CommandRejectedException rejection = command.checkInvocation(source, permitted);
+        if (rejection == null) {
+            rejection = command.peekRateLimits(source);
+        }
+        if (rejection == null) {
+            rejection = command.checkArgumentCount(source, args.length());
+        }
+        if (rejection == null) {
+            rejection = command.checkConstraints(args);
+        }
+        if (rejection == null) {
+            rejection = command.checkRateLimits(source);
+        }
+        if (rejection != null) {
+            return rejection;
+        }
+
+        // no further child found, execute this one.
+        AsyncDispatcher dispatcher = manager == null ? null : manager.getAsyncDispatcher();
+        if (command.async && dispatcher != null) {
+            return dispatcher.dispatch(source, command, args, path, execution);
+        }
+        command.invoke(source, args, path);
+        return null;
+    }
+
+    /**
+     * Runs the executor, recording its latency and failures.
+     *
+     * @param path the names from the dispatched command to this one, for
+     *        the watchdog, or null for just this command's name
+     */
+    void invoke(CommandSource source, CommandArguments args, String path) throws CommandException {
+        Watchdog watchdog = manager == null ? null : manager.getWatchdog();
+        long threshold = watchdog == null ? -1 : watchdog.getThreshold(slowThreshold);
+        long start = System.nanoTime();
+        Watchdog.Watch watch = threshold > 0 ? watchdog.start(start + threshold) : null;
+        try {
+            executor.execute(source, this, args);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(CommandMetrics.Failure.EXECUTOR);
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            metrics.recordInvocation(nanos);
+            if (watch != null) {
+                watchdog.end(watch, this, path == null ? name : path, source, args, nanos, threshold);
+            }
+        }
+    }
+
+    /**
+     * Returns the reason the source may not invoke this command, or null if
+     * it may.
+     */
+    private CommandRejectedException checkInvocation(CommandSource source, Map<Command, Boolean> permitted) {
         if (executor == null) {
-            throw new CommandException("Command exists but no executor has been set.");
+            metrics.recordFailure(CommandMetrics.Failure.EXECUTOR);
+            return NO_EXECUTOR;
         }
 
-        if (permission != null && !source.hasPermission(permission)) {
-            throw new CommandException("You do not have permission to execute this command.");
+        if (!isPermitted(source, permitted)) {
+            metrics.recordFailure(CommandMetrics.Failure.PERMISSION);
+            return NO_PERMISSION;
         }
+        return null;
+    }
 
-        // check arguments count
-        int len = args.length();
+    /**
+     * Returns the rejection if the specified number of arguments is out of
+     * this command's bounds, otherwise null.
+     */
+    private CommandRejectedException checkArgumentCount(CommandSource source, int len) {
+        ArgumentBounds bounds = this.bounds;
+        int minArgs = bounds.min, maxArgs = bounds.max;
         if (len < minArgs) {
+            metrics.recordFailure(CommandMetrics.Failure.ARGUMENT_BOUNDS);
             source.sendMessage("Not enough arguments. (minimum " + minArgs + ")");
-            throw new CommandException(getUsage());
+            return new CommandRejectedException(CommandRejectedException.Reason.ARGUMENT_BOUNDS, getUsage());
         } else if (maxArgs >= 0 && len > maxArgs) { // Less than 0 is considered infinite
+            metrics.recordFailure(CommandMetrics.Failure.ARGUMENT_BOUNDS);
             source.sendMessage("Too many arguments. (maximum " + maxArgs + ")");
-            throw new CommandException(getUsage());
-        }
-
-        // execute a child if applicable
-        if (args.length() > 0) {
-            String childRoot = args.getString(0);
-            List<String> childArgs = new ArrayList<String>(args.get());
-            childArgs.remove(0);
-            for (Command child : children) {
-                for (String alias : child.getAliases()) {
-                    if (alias.equalsIgnoreCase(childRoot)) {
-                        child.execute(source, new CommandArguments(childArgs));
-                        return;
-                    }
+            return new CommandRejectedException(CommandRejectedException.Reason.ARGUMENT_BOUNDS, getUsage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first violation of the argument constraints, or null.
+     */
+    private CommandRejectedException checkConstraints(CommandArguments args) {
+        ArgumentConstraint[] constraints = this.constraints;
+        int count = Math.min(constraints.length, args.length());
+        for (int i = 0; i < count; i++) {
+            if (constraints[i] != null) {
+                CommandRejectedException rejection = constraints[i].check(args, i);
+                if (rejection != null) {
+                    metrics.recordFailure(CommandMetrics.Failure.ARGUMENT_CONSTRAINT);
+                    return rejection;
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * Turns the source away if it would have to wait for the cooldown or
+     * the rate limit of the resolved command, without taking a permit.
+     *
+     * @return the rejection if the source has to wait, otherwise null
+     */
+    private CommandRejectedException peekRateLimits(CommandSource source) {
+        if (cooldown == null && rateLimit == null) {
+            return null;
+        }
+        long wait = cooldown == null ? 0 : cooldown.check(source.getName());
+        if (wait <= 0 && rateLimit != null) {
+            wait = rateLimit.check(source.getName());
+        }
+        return wait <= 0 ? null : rateLimited(wait);
+    }
+
+    /**
+     * Takes a permit from the cooldown and the rate limit of the resolved
+     * command, once every other check has passed, so a rejected dispatch
+     * never costs the source a use.
+     *
+     * @return the rejection if the source has to wait, otherwise null
+     */
+    private CommandRejectedException checkRateLimits(CommandSource source) {
+        if (cooldown == null && rateLimit == null) {
+            return null;
+        }
+        long wait = acquireRateLimits(source.getName());
+        return wait <= 0 ? null : rateLimited(wait);
+    }
+
+    private CommandRejectedException rateLimited(long wait) {
+        metrics.recordFailure(CommandMetrics.Failure.RATE_LIMIT);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        return CommandRejectedException.format(CommandRejectedException.Reason.RATE_LIMIT,
+                "You must wait %ds before using this command again.", (wait + second - 1) / second);
+    }
+
+    /**
+     * Takes a permit from the cooldown and the rate limit, only touching the
+     * rate limit if the cooldown has passed.
+     *
+     * @return zero if allowed, otherwise the nanoseconds to wait
+     */
+    private long acquireRateLimits(String sender) {
+        if (rateLimit == null || (cooldown != null && cooldown.peek(sender) > 0)) {
+            return cooldown.acquire(sender);
+        }
+        long wait = rateLimit.acquire(sender);
+        return wait > 0 || cooldown == null ? wait : cooldown.acquire(sender);
+    }
+
+    private boolean isPermitted(CommandSource source, Map<Command, Boolean> permitted) {
+        if (permitted == null || permission == null) {
+            return isPermitted(source);
+        }
+        Boolean result = permitted.get(this);
+        if (result == null) {
+            permitted.put(this, result = isPermitted(source));
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the source has the permission this command requires.
+     */
+    boolean isPermitted(CommandSource source) {
+        if (permission == null) {
+            return true;
+        }
+        if (source instanceof WrappedCommandSource) {
+            return ((WrappedCommandSource) source).hasPermission(permissionId, permission);
+        }
+        return source.hasPermission(permission);
+    }
+
+    /**
+     * Returns the tab completions for the last of the specified arguments.
+     * Subcommand aliases are completed through each node's prefix trie,
+     * argument values through the target command's {@link ArgumentCompleter}.
+     */
+    public List<String> complete(CommandSource source, String... args) {
+        List<String> completions = new ArrayList<String>();
+        if (args.length == 0 || !isPermitted(source)) {
+            return completions;
+        }
+
+        // resolve the subcommand path up to the argument being completed
+        Registry.Snapshot tree = registry.acquire();
+        int last = args.length - 1;
+        Command command = this;
+        int offset = 0;
+        while (offset < last) {
+            Command child = command.childIndex.get(tree, args[offset]);
+            if (child == null) {
+                break;
+            }
+            if (!child.isPermitted(source)) {
+                return completions;
+            }
+            command = child;
+            offset++;
+        }
+
+        String prefix = args[last];
+        if (offset == last) {
+            command.childIndex.complete(tree, prefix, source, completions);
+        }
+        ArgumentCompleter completer = command.getArgumentCompleter(last - offset);
+        if (completer != null) {
+            completer.complete(source, prefix, completions);
+        }
+        return completions;
+    }
+
+    /**
+     * Returns up to three aliases of this command's children that are
+     * closest to the specified, possibly mistyped, one, nearest first. Only
+     * children the source is permitted to use are suggested.
+     */
+    public List<String> getSuggestions(CommandSource source, String alias) {
+        List<String> suggestions = new ArrayList<String>(SUGGESTIONS);
+        childIndex.suggest(alias, source, SUGGESTIONS, suggestions);
+        return suggestions;
+    }
 
-        // no child found, try to execute.
-        executor.execute(source, this, args);
+    /**
+     * Returns the message for an unknown command name, listing the
+     * suggested names if there are any.
+     */
+    static String unknownMessage(String kind, String name, List<String> suggestions) {
+        StringBuilder message = new StringBuilder("Unknown ").append(kind).append(" '").append(name).append("'.");
+        for (int i = 0; i < suggestions.size(); i++) {
+            message.append(i == 0 ? " Did you mean " : i == suggestions.size() - 1 ? " or " : ", ")
+                    .append(suggestions.get(i));
+        }
+        return suggestions.isEmpty() ? message.toString() : message.append('?').toString();
+    }
+
+    /**
+     * Returns the completer for the argument at the specified index, or null.
+     */
+    public ArgumentCompleter getArgumentCompleter(int index) {
+        return index < completers.length ? completers[index] : null;
+    }
+
+    /**
+     * Sets the completers for this command's arguments, by argument index.
+     * Null entries leave an argument without completions.
+     */
+    public Command setArgumentCompleters(ArgumentCompleter... completers) {
+        registry.begin();
+        try {
+            this.completers = completers.clone();
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the constraint on the argument at the specified index, or null.
+     */
+    public ArgumentConstraint getArgumentConstraint(int index) {
+        return index < constraints.length ? constraints[index] : null;
+    }
+
+    /**
+     * Sets the constraints arguments must satisfy, by argument index. They
+     * are checked after the argument bounds, before the executor is called.
+     * Null entries leave an argument unchecked.
+     */
+    public Command setArgumentConstraints(ArgumentConstraint... constraints) {
+        registry.begin();
+        try {
+            this.constraints = constraints.clone();
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the invocation statistics of this command.
+     */
+    public CommandMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -111,15 +533,155 @@ public class Command {
      * Sets the {@link Executor} associated with this command.
      */
     public Command setExecutor(Executor executor) {
-        this.executor = executor;
+        registry.begin();
+        try {
+            this.executor = executor;
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns true if the executor runs off the main thread.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Sets whether the executor runs on the {@link AsyncDispatcher} of the
+     * command's manager. Permission and argument checks still happen on the
+     * calling thread. Without a dispatcher the command runs synchronously.
+     */
+    public Command setAsync(boolean async) {
+        registry.begin();
+        try {
+            this.async = async;
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the cooldown between uses by the same sender, or null.
+     */
+    public RateLimit getCooldown() {
+        return cooldown;
+    }
+
+    /**
+     * Sets the time a sender has to wait between uses of this command.
+     * Only executions of this command itself count as uses, not those of
+     * its children. A duration of zero removes the cooldown.
+     */
+    public Command setCooldown(long duration, TimeUnit unit) {
+        registry.begin();
+        try {
+            this.cooldown = duration > 0 ? RateLimit.cooldown(duration, unit) : null;
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the limit on uses per period by the same sender, or null.
+     */
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Limits each sender to a burst of the specified number of uses,
+     * refilled at that many uses per period, see
+     * {@link RateLimit#perPeriod(int, long, TimeUnit)}. Like the cooldown,
+     * it only applies to this command and not its children. Zero permits
+     * removes the limit.
+     */
+    public Command setRateLimit(int permits, long period, TimeUnit unit) {
+        registry.begin();
+        try {
+            this.rateLimit = permits > 0 ? RateLimit.perPeriod(permits, period, unit) : null;
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
     /**
-     * Returns a set of all the command's children
+     * Returns the execution time after which the manager's {@link Watchdog}
+     * reports an execution of this command.
+     *
+     * @return the threshold, 0 if the watchdog's default applies or
+     *         negative if executions are never reported
+     */
+    public long getSlowThreshold(TimeUnit unit) {
+        return unit.convert(slowThreshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the execution time after which the manager's {@link Watchdog}
+     * samples and reports an execution of this command.
+     *
+     * @param duration of the threshold, 0 to use the watchdog's default or
+     *        negative to never report this command
+     */
+    public Command setSlowThreshold(long duration, TimeUnit unit) {
+        registry.begin();
+        try {
+            this.slowThreshold = unit.toNanos(duration);
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the queue the executor can hand work too long for a single
+     * tick to, or null if the manager has none.
+     */
+    public WorkQueue getWorkQueue() {
+        return manager == null ? null : manager.getWorkQueue();
+    }
+
+    /**
+     * Returns true if the arguments are lexed for quotes and flags.
+     */
+    public boolean isCommandLineParsing() {
+        return commandLineParsing;
+    }
+
+    /**
+     * Sets whether the arguments given to this command are re-read as a
+     * {@link CommandLine}, so quoted arguments may contain spaces and flags
+     * are available through {@link CommandArguments#getFlag(String)}.
+     * Argument bounds then apply to the arguments without the flags.
+     */
+    public Command setCommandLineParsing(boolean commandLineParsing) {
+        registry.begin();
+        try {
+            this.commandLineParsing = commandLineParsing;
+        } finally {
+            registry.end();
+        }
+        return this;
+    }
+
+    /**
+     * Returns a set of all the command's children, as of the last published
+     * update.
      */
     public Set<Command> getChildren() {
-        return Collections.unmodifiableSet(children);
+        return childIndex.getCommands();
+    }
+
+    /**
+     * Returns the command's children in the specified snapshot of the tree.
+     */
+    Set<Command> getChildren(Registry.Snapshot tree) {
+        return childIndex.getCommands(tree);
     }
 
     /**
@@ -127,20 +689,21 @@ public class Command {
      * new command unless otherwise specified.
      */
     public Command getChild(String name, boolean createIfAbsent) {
-        for (Command child : children) {
-            for (String alias : child.getAliases()) {
-                if (alias.equalsIgnoreCase(name)) {
-                    return child;
-                }
-            }
+        Command command = childIndex.get(name);
+        if (command != null || !createIfAbsent) {
+            return command;
         }
 
-        Command command = null;
-
-        if (createIfAbsent) {
-            children.add(command = new Command(name));
+        registry.begin();
+        try {
+            command = childIndex.get(name);
+            if (command == null) {
+                command = new Command(manager, registry, name);
+                command.setIndex(childIndex);
+            }
+        } finally {
+            registry.end();
         }
-
         return command;
     }
     /**
@@ -160,9 +723,20 @@ public class Command {
 
     /**
      * Adds a name under which this command is recognized
+     *
+     * @throws IllegalArgumentException if a sibling command already uses the name
      */
     public Command addAlias(String... alias) {
-        aliases.addAll(Arrays.asList(alias));
+        List<String> added = Arrays.asList(alias);
+        registry.begin();
+        try {
+            if (index != null) {
+                index.add(this, added);
+            }
+            aliases.addAll(added);
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
@@ -170,10 +744,40 @@ public class Command {
      * Remove a name under which this command is is recognized
      */
     public Command removeAlias(String... alias) {
-        aliases.removeAll(Arrays.asList(alias));
+        List<String> removed = Arrays.asList(alias);
+        registry.begin();
+        try {
+            aliases.removeAll(removed);
+            if (index != null) {
+                index.remove(this, removed);
+            }
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
+    /**
+     * Returns true if the command is still recognized under the normalized alias.
+     */
+    boolean hasAlias(String normalizedAlias) {
+        for (String alias : aliases) {
+            if (AliasIndex.normalize(alias).equals(normalizedAlias)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attaches the command to the index that resolves it and indexes its
+     * current aliases. Must be called during an update.
+     */
+    void setIndex(AliasIndex index) {
+        index.add(this, aliases);
+        this.index = index;
+    }
+
     /**
      * Returns the help information for this command.
      */
@@ -185,7 +789,12 @@ public class Command {
      * Set the help information for this command.
      */
     public Command setHelp(String help) {
-        this.help = help;
+        registry.begin();
+        try {
+            this.help = help;
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
@@ -200,7 +809,12 @@ public class Command {
      * Set the correct usage for this command.
      */
     public Command setUsage(String usage) {
-        this.usage = usage;
+        registry.begin();
+        try {
+            this.usage = usage;
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
@@ -215,7 +829,14 @@ public class Command {
      * Set the permission node required to execute this command.
      */
     public Command setPermission(String permission) {
-        this.permission = permission;
+        int permissionId = permission == null ? -1 : PermissionCache.intern(permission);
+        registry.begin();
+        try {
+            this.permission = permission;
+            this.permissionId = permissionId;
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
@@ -223,8 +844,13 @@ public class Command {
      * Set the maximum and minimum arguments for this command
      */
     public Command setArgumentBounds(int maxArgs, int minArgs) {
-        this.maxArgs = maxArgs;
-        this.minArgs = minArgs;
+        ArgumentBounds bounds = new ArgumentBounds(minArgs, maxArgs);
+        registry.begin();
+        try {
+            this.bounds = bounds;
+        } finally {
+            registry.end();
+        }
         return this;
     }
 
@@ -232,14 +858,14 @@ public class Command {
      * Get the maximum arguments for this command
      */
     public int getMaxArguments() {
-        return maxArgs;
+        return bounds.max;
     }
 
     /**
      * Get the minimum arguments for this command
      */
     public int getMinArguments() {
-        return minArgs;
+        return bounds.min;
     }
 
     /**
@@ -249,10 +875,21 @@ public class Command {
         return name;
     }
 
+    /**
+     * Returns true if Bukkit resolves the label to the plugin command this
+     * command was applied to, so running it directly skips nothing the
+     * server would check.
+     */
+    boolean isRegisteredAs(String label) {
+        PluginCommand registered = pluginCommand;
+        return registered != null && Bukkit.getPluginCommand(label) == registered;
+    }
+
     /**
      * Applies info to an {@link org.bukkit.command.PluginCommand} object.
      */
     public void initializePluginCommand(PluginCommand cmd) {
+        pluginCommand = cmd;
         cmd.setUsage(getUsage());
         cmd.setDescription(getHelp());
         cmd.setPermission(getPermission());
@@ -262,14 +899,21 @@ public class Command {
 			public boolean onCommand(CommandSender sender,
 					org.bukkit.command.Command command, String label,
 					String[] args) {
-				try {
-					execute(new WrappedCommandSource(sender), args);
-				} catch (CommandException ce) {
-					sender.sendMessage(ChatColor.RED + ce.getMessage());
+				String error = tryExecute(new WrappedCommandSource(sender, manager), new CommandArguments(args), null);
+				if (error != null) {
+					sender.sendMessage(ChatColor.RED + error);
 				}
 				
 				return true;
 			}
 		});
+        cmd.setTabCompleter(new TabCompleter() {
+
+            public List<String> onTabComplete(CommandSender sender,
+                    org.bukkit.command.Command command, String alias,
+                    String[] args) {
+                return complete(new WrappedCommandSource(sender, manager), args);
+            }
+        });
     }
 }
@@ -39,35 +39,120 @@ import java.util.List;
  * A wrapper class for the arguments to make parsing easier
  */
 public class CommandArguments {
-    private final List<String> args;
+    private final CommandLine line;
+    private final String[] args;
+    private final int offset, length;
+    private List<String> view;
+    // per-token parse results, allocated on the first numeric or boolean access
+    private int[] parsed;
+    private long[] longs;
+    private double[] doubles;
+    private Player[] players, exactPlayers;
 
     public CommandArguments(List<String> args) {
-        this.args = args;
+        this(args.toArray(new String[args.size()]));
     }
 
     public CommandArguments(String... args) {
-        this(Arrays.asList(args));
+        this(args, 0, args.length);
+    }
+
+    /**
+     * Creates arguments viewing a range of the specified array. The array
+     * is shared, not copied, so it must not be modified afterwards.
+     */
+    public CommandArguments(String[] args, int offset, int length) {
+        this(null, args, offset, length);
+    }
+
+    /**
+     * Creates arguments for a lexed command line. Null entries of the
+     * array are created from the line on first access.
+     */
+    CommandArguments(CommandLine line, String[] tokens) {
+        this(line, tokens, 0, tokens.length);
+    }
+
+    private CommandArguments(CommandLine line, String[] args, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > args.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + args.length);
+        }
+        this.line = line;
+        this.args = args;
+        this.offset = offset;
+        this.length = length;
     }
 
     /**
      * Returns all the arguments
      */
     public List<String> get() {
-        return Collections.unmodifiableList(args);
+        if (view == null) {
+            materialize();
+            view = Collections.unmodifiableList(Arrays.asList(args).subList(offset, offset + length));
+        }
+        return view;
     }
 
     /**
      * Returns the length of arguments
      */
     public int length() {
-        return args.size();
+        return length;
+    }
+
+    /**
+     * Returns the arguments from the specified index on, sharing this
+     * instance's backing array.
+     */
+    public CommandArguments slice(int index) {
+        if (index == 0) {
+            return this;
+        }
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + length);
+        }
+        return new CommandArguments(line, args, offset + index, length - index);
     }
 
-    private String getString0(int index) {
-        if (index >= args.size()) {
+    String getString0(int index) {
+        if (index < 0 || index >= length) {
             return null;
         }
-        return args.get(index);
+        String str = args[offset + index];
+        if (str == null && line != null) {
+            str = line.getArgument(offset + index);
+        }
+        return str;
+    }
+
+    private void materialize() {
+        for (int i = 0; line != null && i < length; i++) {
+            getString0(i);
+        }
+    }
+
+    /**
+     * Returns the command line these arguments were lexed from, or null if
+     * they were passed pre-split.
+     */
+    public CommandLine getCommandLine() {
+        return line;
+    }
+
+    /**
+     * Returns true if the flag was given on the command line.
+     */
+    public boolean hasFlag(String name) {
+        return line != null && line.hasFlag(name);
+    }
+
+    /**
+     * Returns the value of the flag, or null if it was not given or has no
+     * value.
+     */
+    public String getFlag(String name) {
+        return line == null ? null : line.getFlag(name);
     }
 
     /**
@@ -76,108 +161,380 @@ public class CommandArguments {
     public String getString(int index) throws CommandException {
         String str = getString0(index);
         if (str == null) {
-            throw new CommandException("Specified index is out of bounds. (index " + index + "; size " + args.size() + ")");
+            throw CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT,
+                    "Specified index is out of bounds. (index %d; size %d)", index, length);
         }
         return str;
     }
 
-    private Integer getInteger0(int index) {
-        try {
-            return Integer.parseInt(getString0(index));
-        } catch (NumberFormatException e) {
-            return null;
+    private static final int LONG_PARSED = 1, LONG_VALID = 2, DOUBLE_PARSED = 4, DOUBLE_VALID = 8,
+            BOOLEAN_PARSED = 16, BOOLEAN_VALID = 32, BOOLEAN_TRUE = 64, PLAYER_RESOLVED = 128,
+            PLAYER_EXACT_RESOLVED = 256;
+
+    /**
+     * Parses the token at the specified index as a long, once. Tokens that
+     * are not integers are remembered as invalid instead of throwing.
+     */
+    private boolean parseLong(int index) {
+        String str = getString0(index);
+        if (str == null) {
+            return false;
+        }
+        ensureParsed();
+        int state = parsed[index];
+        if ((state & LONG_PARSED) == 0) {
+            state |= LONG_PARSED;
+            int len = str.length();
+            int i = 0;
+            boolean negative = false;
+            if (len > 0 && (str.charAt(0) == '-' || str.charAt(0) == '+')) {
+                negative = str.charAt(0) == '-';
+                i++;
+            }
+
+            // accumulate negatively so Long.MIN_VALUE fits
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long result = 0;
+            boolean valid = i < len;
+            for (; i < len && valid; i++) {
+                int digit = Character.digit(str.charAt(i), 10);
+                if (digit < 0 || result < limit / 10) {
+                    valid = false;
+                } else {
+                    result *= 10;
+                    if (result < limit + digit) {
+                        valid = false;
+                    }
+                    result -= digit;
+                }
+            }
+            if (valid) {
+                state |= LONG_VALID;
+                longs[index] = negative ? result : -result;
+            }
+            parsed[index] = state;
+        }
+        return (state & LONG_VALID) != 0;
+    }
+
+    /**
+     * Parses the token at the specified index as a double, once. The token
+     * is checked against the decimal literal syntax before it is handed to
+     * {@link Double#parseDouble(String)}, so invalid input only throws if
+     * it starts like a hex literal or has surrounding whitespace, which the
+     * check leaves to the JDK. The accepted grammar is that of
+     * {@link Double#parseDouble(String)}.
+     */
+    private boolean parseDouble(int index) {
+        String str = getString0(index);
+        if (str == null) {
+            return false;
+        }
+        ensureParsed();
+        int state = parsed[index];
+        if ((state & DOUBLE_PARSED) == 0) {
+            state |= DOUBLE_PARSED;
+            if (parseLong(index) && Math.abs(longs[index]) <= (1L << 53)
+                    && (longs[index] != 0 || str.charAt(0) != '-')) {
+                // exactly representable, skip the decimal conversion; "-0" is left to the JDK for its sign
+                doubles[index] = longs[index];
+                state |= DOUBLE_VALID;
+            } else if (isDecimal(str)) {
+                doubles[index] = Double.parseDouble(str);
+                state |= DOUBLE_VALID;
+            } else if (isHexOrPadded(str)) {
+                try {
+                    doubles[index] = Double.parseDouble(str);
+                    state |= DOUBLE_VALID;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            parsed[index] |= state;
+        }
+        return (parsed[index] & DOUBLE_VALID) != 0;
+    }
+
+    private static boolean isDecimal(String str) {
+        int len = str.length();
+        int i = 0;
+        if (i < len && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+            i++;
+        }
+        if (str.startsWith("NaN", i) || str.startsWith("Infinity", i)) {
+            return str.length() == i + (str.charAt(i) == 'N' ? 3 : 8);
+        }
+
+        int digits = 0;
+        while (i < len && isDigit(str.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < len && str.charAt(i) == '.') {
+            i++;
+            while (i < len && isDigit(str.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < len && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+            i++;
+            if (i < len && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+                i++;
+            }
+            int exponent = i;
+            while (i < len && isDigit(str.charAt(i))) {
+                i++;
+            }
+            if (i == exponent) {
+                return false;
+            }
+        }
+        if (i < len && "fFdD".indexOf(str.charAt(i)) >= 0) {
+            i++;
+        }
+        return i == len;
+    }
+
+    /**
+     * Returns true if the token may be a hex floating point literal or be
+     * padded with whitespace, the forms {@link #isDecimal(String)} rejects
+     * but {@link Double#parseDouble(String)} accepts.
+     */
+    private static boolean isHexOrPadded(String str) {
+        if (str.trim() != str) {
+            return true;
+        }
+        int i = str.startsWith("-") || str.startsWith("+") ? 1 : 0;
+        return str.startsWith("0x", i) || str.startsWith("0X", i);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Parses the token at the specified index as a boolean, once.
+     */
+    private boolean parseBoolean(int index) {
+        String str = getString0(index);
+        if (str == null) {
+            return false;
+        }
+        ensureParsed();
+        int state = parsed[index];
+        if ((state & BOOLEAN_PARSED) == 0) {
+            state |= BOOLEAN_PARSED;
+            if (str.equalsIgnoreCase("true")) {
+                state |= BOOLEAN_VALID | BOOLEAN_TRUE;
+            } else if (str.equalsIgnoreCase("false")) {
+                state |= BOOLEAN_VALID;
+            }
+            parsed[index] = state;
+        }
+        return (state & BOOLEAN_VALID) != 0;
+    }
+
+    private void ensureParsed() {
+        if (parsed == null) {
+            parsed = new int[length];
+            longs = new long[length];
+            doubles = new double[length];
         }
     }
+
+    private static CommandRejectedException invalid(String format, int index) {
+        return CommandRejectedException.format(CommandRejectedException.Reason.INVALID_ARGUMENT, format, index);
+    }
+
+    private boolean parseInteger(int index) {
+        return parseLong(index) && longs[index] >= Integer.MIN_VALUE && longs[index] <= Integer.MAX_VALUE;
+    }
+
     /**
      * Parses and returns an integer at the specified index.
      */
     public int getInteger(int index) throws CommandException {
-        Integer i = getInteger0(index);
-        if (i == null) {
-            throw new CommandException("Expected integer at index " + index);
+        if (!parseInteger(index)) {
+            throw invalid("Expected integer at index %d", index);
         }
-        return i;
+        return (int) longs[index];
+    }
+
+    /**
+     * Parses and returns an integer at the specified index, or the default
+     * if it is missing or not an integer.
+     */
+    public int getIntegerOr(int index, int def) {
+        return parseInteger(index) ? (int) longs[index] : def;
     }
 
     /**
      * Returns true if the {@link String} at the specified index is an integer.
      */
     public boolean isInteger(int index) {
-        return getInteger0(index) != null;
+        return parseInteger(index);
     }
 
-    private Double getDouble0(int index) {
-        try {
-            return Double.parseDouble(getString0(index));
-        } catch (NumberFormatException e) {
-            return null;
+    /**
+     * Parses and returns a long at the specified index.
+     */
+    public long getLong(int index) throws CommandException {
+        if (!parseLong(index)) {
+            throw invalid("Expected integer at index %d", index);
         }
+        return longs[index];
+    }
+
+    /**
+     * Parses and returns a long at the specified index, or the default if it
+     * is missing or not an integer.
+     */
+    public long getLongOr(int index, long def) {
+        return parseLong(index) ? longs[index] : def;
+    }
+
+    /**
+     * Returns true if the {@link String} at the specified index is a long.
+     */
+    public boolean isLong(int index) {
+        return parseLong(index);
     }
 
     /**
      * Parses and returns a double at the specified index.
      */
     public double getDouble(int index) throws CommandException {
-        Double d = getDouble0(index);
-        if (d == null) {
-            throw new CommandException("Expected floating point at index " + index);
+        if (!parseDouble(index)) {
+            throw invalid("Expected floating point at index %d", index);
         }
-        return d;
+        return doubles[index];
+    }
+
+    /**
+     * Parses and returns a double at the specified index, or the default if
+     * it is missing or not a number.
+     */
+    public double getDoubleOr(int index, double def) {
+        return parseDouble(index) ? doubles[index] : def;
     }
 
     /**
      * Returns true if the {@link String} at the specified index is a double.
      */
     public boolean isDouble(int index) {
-        return getDouble0(index) != null;
+        return parseDouble(index);
     }
 
-    private Boolean getBoolean0(int index) {
-        String str = getString0(index);
-        if (!str.equalsIgnoreCase("true") && !str.equalsIgnoreCase("false")) {
-            return null;
-        }
-        return Boolean.parseBoolean(str);
+    /**
+     * Parses and returns a float at the specified index.
+     */
+    public float getFloat(int index) throws CommandException {
+        return (float) getDouble(index);
+    }
+
+    /**
+     * Parses and returns a float at the specified index, or the default if
+     * it is missing or not a number.
+     */
+    public float getFloatOr(int index, float def) {
+        return parseDouble(index) ? (float) doubles[index] : def;
+    }
+
+    /**
+     * Returns true if the {@link String} at the specified index is a float.
+     */
+    public boolean isFloat(int index) {
+        return parseDouble(index);
     }
 
     /**
      * Parses and returns a boolean at the specified index.
      */
     public boolean getBoolean(int index) throws CommandException {
-        Boolean b = getBoolean0(index);
-        if (b == null) {
-            throw new CommandException("Expected boolean value at index " + index);
+        if (!parseBoolean(index)) {
+            throw invalid("Expected boolean value at index %d", index);
         }
-        return b;
+        return (parsed[index] & BOOLEAN_TRUE) != 0;
+    }
+
+    /**
+     * Parses and returns a boolean at the specified index, or the default if
+     * it is missing or not a boolean.
+     */
+    public boolean getBooleanOr(int index, boolean def) {
+        return parseBoolean(index) ? (parsed[index] & BOOLEAN_TRUE) != 0 : def;
     }
 
     /**
      * Returns true if the string at the specified index is a boolean.
      */
     public boolean isBoolean(int index) {
-        return getBoolean0(index) != null;
+        return parseBoolean(index);
+    }
+
+    /**
+     * Returns every argument from the specified index on.
+     */
+    public String[] getStrings(int index) {
+        materialize();
+        int start = offset + Math.min(Math.max(index, 0), length);
+        return Arrays.copyOfRange(args, start, offset + length);
     }
 
     /**
      * Returns a string including every argument from the specified index on.
      */
     public String getJoinedString(int index) {
+        int end = offset + length;
+        int start = offset + Math.max(index, 0);
+        if (start >= end) {
+            return "";
+        }
+        if (start + 1 == end) {
+            return getString0(start - offset);
+        }
+
         StringBuilder builder = new StringBuilder();
-        for (int i = index; i < args.size(); i++) {
-            builder.append(args.get(i));
-            if (i + 1 != args.size()) {
+        for (int i = start; i < end; i++) {
+            builder.append(getString0(i - offset));
+            if (i + 1 != end) {
                 builder.append(' ');
             }
         }
         return builder.toString();
     }
 
+    /**
+     * Resolves the player at the specified index, once per lookup mode.
+     */
     private Player getPlayer0(int index, boolean exact) {
-        if (exact) {
-            return Bukkit.getServer().getPlayerExact(getString0(index));
-        } else {
-            return Bukkit.getServer().getPlayer(getString0(index));
+        String name = getString0(index);
+        if (name == null) {
+            return null;
+        }
+        ensureParsed();
+        int flag = exact ? PLAYER_EXACT_RESOLVED : PLAYER_RESOLVED;
+        if (exact && exactPlayers == null) {
+            exactPlayers = new Player[length];
+        } else if (!exact && players == null) {
+            players = new Player[length];
+        }
+        Player[] resolved = exact ? exactPlayers : players;
+        if ((parsed[index] & flag) == 0) {
+            PlayerIndex playerIndex = PlayerIndex.getInstance();
+            if (playerIndex != null) {
+                resolved[index] = exact ? playerIndex.getExact(name) : playerIndex.getMatch(name);
+            } else if (exact) {
+                resolved[index] = Bukkit.getServer().getPlayerExact(name);
+            } else {
+                resolved[index] = Bukkit.getServer().getPlayer(name);
+            }
+            parsed[index] |= flag;
         }
+        return resolved[index];
     }
 
     /**
@@ -186,7 +543,7 @@ public class CommandArguments {
     public Player getPlayer(int index, boolean exact) throws CommandException {
         Player player = getPlayer0(index, exact);
         if (player == null) {
-            throw new CommandException("Player not found.");
+            throw new CommandRejectedException(CommandRejectedException.Reason.NOT_FOUND, "Player not found.");
         }
         return player;
     }
@@ -222,7 +579,7 @@ public class CommandArguments {
     public World getWorld(int index) throws CommandException {
         World world = getWorld0(index);
         if (world == null) {
-            throw new CommandException("World not found.");
+            throw new CommandRejectedException(CommandRejectedException.Reason.NOT_FOUND, "World not found.");
         }
         return world;
     }
@@ -245,7 +602,10 @@ public class CommandArguments {
      * Returns the arguments in an array.
      */
     public String[] toArray() {
-        return args.toArray(new String[args.size()]);
+        materialize();
+        String[] array = new String[length];
+        System.arraycopy(args, offset, array, 0, length);
+        return array;
     }
 
     @Override
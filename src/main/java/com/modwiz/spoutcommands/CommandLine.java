@@ -0,0 +1,238 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A command line split into arguments and flags in a single scan.
+ * <p>
+ * Arguments are separated by spaces; a double quoted argument may contain
+ * spaces and {@code \"} or {@code \\} escapes, a single quoted one is taken
+ * literally. {@code -abc} sets the flags {@code a}, {@code b} and
+ * {@code c}, {@code --name} sets {@code name} and {@code --name=value}
+ * (value optionally quoted) gives it a value. A lone {@code --} ends flag
+ * parsing. Negative numbers such as {@code -5} stay arguments.
+ * <p>
+ * The scan only records where each argument lies in the line; an
+ * argument's string is created the first time it is read.
+ */
+public final class CommandLine {
+    private static final String NO_VALUE = new String();
+    private final CharSequence line;
+    private final Map<String, String> flags = new HashMap<String, String>();
+    private int[] starts = new int[8], ends = new int[8];
+    private boolean[] doubleQuoted = new boolean[8];
+    private String[] tokens;
+    private int count;
+
+    private CommandLine(CharSequence line) {
+        this.line = line;
+    }
+
+    /**
+     * Splits the specified command line.
+     */
+    public static CommandLine parse(CharSequence line) {
+        CommandLine commandLine = new CommandLine(line);
+        commandLine.scan();
+        return commandLine;
+    }
+
+    private void scan() {
+        int len = line.length();
+        int i = 0;
+        boolean parseFlags = true;
+        while (i < len) {
+            char c = line.charAt(i);
+            if (c == ' ') {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                int end = closingQuote(i);
+                add(i + 1, end, c == '"');
+                i = end < len ? end + 1 : end;
+            } else if (parseFlags && c == '-' && i + 1 < len && line.charAt(i + 1) == '-') {
+                if (i + 2 == len || line.charAt(i + 2) == ' ') {
+                    parseFlags = false;
+                    i += 2;
+                } else {
+                    i = scanLongFlag(i + 2);
+                }
+            } else if (parseFlags && c == '-' && i + 1 < len && Character.isLetter(line.charAt(i + 1))) {
+                i++;
+                while (i < len && line.charAt(i) != ' ') {
+                    flags.put(String.valueOf(line.charAt(i)), NO_VALUE);
+                    i++;
+                }
+            } else {
+                int start = i;
+                while (i < len && line.charAt(i) != ' ') {
+                    i++;
+                }
+                add(start, i, false);
+            }
+        }
+        tokens = new String[count];
+    }
+
+    /**
+     * Returns the index of the quote closing the one at the specified
+     * index, or the end of the line if it is unterminated.
+     */
+    private int closingQuote(int quote) {
+        char q = line.charAt(quote);
+        int len = line.length();
+        int i = quote + 1;
+        while (i < len && line.charAt(i) != q) {
+            if (q == '"' && line.charAt(i) == '\\' && i + 1 < len) {
+                i++;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private int scanLongFlag(int start) {
+        int len = line.length();
+        int i = start;
+        while (i < len && line.charAt(i) != ' ' && line.charAt(i) != '=') {
+            i++;
+        }
+        String name = line.subSequence(start, i).toString();
+        if (i < len && line.charAt(i) == '=') {
+            i++;
+            if (i < len && (line.charAt(i) == '"' || line.charAt(i) == '\'')) {
+                int end = closingQuote(i);
+                flags.put(name, unescape(i + 1, end, line.charAt(i) == '"'));
+                i = end < len ? end + 1 : end;
+            } else {
+                int value = i;
+                while (i < len && line.charAt(i) != ' ') {
+                    i++;
+                }
+                flags.put(name, line.subSequence(value, i).toString());
+            }
+        } else {
+            flags.put(name, NO_VALUE);
+        }
+        return i;
+    }
+
+    private void add(int start, int end, boolean escapes) {
+        if (count == starts.length) {
+            int length = count * 2;
+            int[] grownStarts = new int[length], grownEnds = new int[length];
+            boolean[] grownQuoted = new boolean[length];
+            System.arraycopy(starts, 0, grownStarts, 0, count);
+            System.arraycopy(ends, 0, grownEnds, 0, count);
+            System.arraycopy(doubleQuoted, 0, grownQuoted, 0, count);
+            starts = grownStarts;
+            ends = grownEnds;
+            doubleQuoted = grownQuoted;
+        }
+        starts[count] = start;
+        ends[count] = end;
+        doubleQuoted[count] = escapes;
+        count++;
+    }
+
+    /**
+     * Returns the text between the specified indexes, resolving backslash
+     * escapes if the text was double quoted.
+     */
+    private String unescape(int start, int end, boolean escapes) {
+        int backslash = start;
+        while (escapes && backslash < end && line.charAt(backslash) != '\\') {
+            backslash++;
+        }
+        if (!escapes || backslash == end) {
+            return line.subSequence(start, end).toString();
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                c = line.charAt(++i);
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the number of arguments, not counting flags.
+     */
+    public int length() {
+        return count;
+    }
+
+    /**
+     * Returns the argument at the specified index, creating its string on
+     * first access.
+     */
+    public String getArgument(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + count);
+        }
+        String token = tokens[index];
+        if (token == null) {
+            tokens[index] = token = unescape(starts[index], ends[index], doubleQuoted[index]);
+        }
+        return token;
+    }
+
+    /**
+     * Returns true if the flag was given, with or without a value.
+     */
+    public boolean hasFlag(String name) {
+        return flags.containsKey(name);
+    }
+
+    /**
+     * Returns the value of the flag, or null if it was not given or has no
+     * value.
+     */
+    public String getFlag(String name) {
+        String value = flags.get(name);
+        return value == NO_VALUE ? null : value;
+    }
+
+    /**
+     * Returns the arguments of this line. Their strings are created lazily
+     * and shared with this line.
+     */
+    public CommandArguments toArguments() {
+        return new CommandArguments(this, tokens);
+    }
+
+    @Override
+    public String toString() {
+        return line.toString();
+    }
+}
@@ -29,25 +29,68 @@ package com.modwiz.spoutcommands;
 
 import com.modwiz.spoutcommands.annotations.AnnotatedCommandExecutorFactory;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * CommandManager
  */
 public class CommandManager {
-    private final Set<Command> commands = new HashSet<Command>();
+    private static final Logger LOGGER = Logger.getLogger(CommandManager.class.getName());
+    private final Registry registry = new Registry();
+    private final AliasIndex index = new AliasIndex(registry);
+    private volatile AsyncDispatcher asyncDispatcher;
+    private volatile HelpIndex helpIndex;
+    private volatile AuditLog auditLog;
+    private volatile Watchdog watchdog;
+    private volatile WorkQueue workQueue;
 
     public CommandManager() {}
 
     /**
-     * Returns a set of all commands
+     * Returns a set of all commands, as of the last published update.
      *
      * @return all the commands
      */
     public Set<Command> getCommands() {
-        return Collections.unmodifiableSet(commands);
+        return index.getCommands();
+    }
+
+    /**
+     * Returns the root commands in the specified snapshot of the tree.
+     */
+    Set<Command> getCommands(Registry.Snapshot tree) {
+        return index.getCommands(tree);
+    }
+
+    /**
+     * Starts a batch of changes to the command tree. Commands created and
+     * aliases changed until the matching {@link #endUpdate()} are only seen
+     * by other threads once the update ends, all at the same time, together
+     * with any other settings changed on the commands in the meantime.
+     * Other threads changing the tree wait for the update to end; lookups
+     * and executions never wait.
+     * <p>
+     * Updates nest and must be ended in a {@code finally} block.
+     */
+    public void beginUpdate() {
+        registry.begin();
+    }
+
+    /**
+     * Ends the update started by {@link #beginUpdate()}, publishing its
+     * changes if it is the outermost one.
+     */
+    public void endUpdate() {
+        registry.end();
     }
 
     /**
@@ -59,19 +102,21 @@ public class CommandManager {
      * @return command with speified name
      */
     public Command getCommand(String cmd, boolean createIfAbsent) {
-        for (Command c : commands) {
-            for (String alias : c.getAliases()) {
-                if (cmd.equalsIgnoreCase(alias)) {
-                    return c;
-                }
-            }
+        Command command = index.get(cmd);
+        if (command != null || !createIfAbsent) {
+            return command;
         }
 
-        Command command = null;
-        if (createIfAbsent) {
-            commands.add(command = new Command(cmd));
+        registry.begin();
+        try {
+            command = index.get(cmd);
+            if (command == null) {
+                command = new Command(this, registry, cmd);
+                command.setIndex(index);
+            }
+        } finally {
+            registry.end();
         }
-
         return command;
     }
 
@@ -86,6 +131,203 @@ public class CommandManager {
         return getCommand(cmd, true);
     }
 
+    /**
+     * Executes a sequence of command lines for one source, in order. Root
+     * commands are looked up once per distinct name and permission results
+     * are shared by every line of the batch. Lines are split on spaces like
+     * a command typed in chat, so a command gets the same arguments either
+     * way; commands with {@link Command#setCommandLineParsing(boolean)
+     * command line parsing} lex them as usual. An exception thrown by an
+     * executor fails its line rather than the batch.
+     *
+     * @param source to execute the lines as
+     * @param commandLines lines without a leading slash, e.g. {@code "give Steve 5"}
+     * @param stopOnFailure true to skip the remaining lines after a failure
+     * @return the per-line and overall results
+     */
+    public BatchResult executeBatch(CommandSource source, List<String> commandLines, boolean stopOnFailure) {
+        long batchStart = System.nanoTime();
+        BatchResult result = new BatchResult(commandLines.size());
+        Map<String, Command> roots = new HashMap<String, Command>();
+        Map<Command, Boolean> permitted = new IdentityHashMap<Command, Boolean>();
+        for (String commandLine : commandLines) {
+            long start = System.nanoTime();
+            // split as the server splits a typed command
+            String[] tokens = commandLine.split(" ");
+            String error = null;
+            if (tokens.length == 0 || commandLine.isEmpty()) {
+                error = "Empty command line.";
+            } else {
+                String name = tokens[0];
+                Command command = roots.get(name);
+                if (command == null && !roots.containsKey(name)) {
+                    roots.put(name, command = index.get(name));
+                }
+                if (command == null) {
+                    error = Command.unknownMessage("command", name, getSuggestions(source, name));
+                } else {
+                    try {
+                        error = command.tryExecute(source, new CommandArguments(tokens, 1, tokens.length - 1), permitted);
+                    } catch (RuntimeException e) {
+                        error = "An internal error occurred while executing this command.";
+                        LOGGER.log(Level.SEVERE, "Unhandled exception executing '" + commandLine + "' for " + source.getName(), e);
+                    }
+                }
+            }
+
+            result.add(new BatchResult.Line(commandLine, error, System.nanoTime() - start));
+            if (error != null && stopOnFailure) {
+                break;
+            }
+        }
+        result.setTotalNanos(System.nanoTime() - batchStart);
+        return result;
+    }
+
+    /**
+     * Returns the tab completions for a command line. The first argument is
+     * the command name; if it is the only one, command names are completed.
+     *
+     * @param source completing the command
+     * @param args command name followed by its arguments
+     * @return completions for the last argument
+     */
+    public List<String> complete(CommandSource source, String... args) {
+        if (args.length == 1) {
+            List<String> completions = new ArrayList<String>();
+            index.complete(registry.acquire(), args[0], source, completions);
+            return completions;
+        }
+
+        Command command = args.length == 0 ? null : index.get(args[0]);
+        if (command == null) {
+            return new ArrayList<String>();
+        }
+        return command.complete(source, Arrays.copyOfRange(args, 1, args.length));
+    }
+
+    /**
+     * Returns up to three command aliases closest to the specified, possibly
+     * mistyped, one, nearest first. Only commands the source is permitted to
+     * use are suggested.
+     */
+    public List<String> getSuggestions(CommandSource source, String alias) {
+        List<String> suggestions = new ArrayList<String>(Command.SUGGESTIONS);
+        index.suggest(alias, source, Command.SUGGESTIONS, suggestions);
+        return suggestions;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every command, keyed by the
+     * space separated path of command names, e.g. {@code "region flag set"}.
+     *
+     * @param reset true to reset the metrics after taking the snapshot
+     * @return metrics by command path
+     */
+    public Map<String, CommandMetrics.Snapshot> getMetrics(boolean reset) {
+        Map<String, CommandMetrics.Snapshot> snapshots = new LinkedHashMap<String, CommandMetrics.Snapshot>();
+        for (Command command : index.getCommands()) {
+            collectMetrics(command, command.getName(), reset, snapshots);
+        }
+        return snapshots;
+    }
+
+    private static void collectMetrics(Command command, String path, boolean reset, Map<String, CommandMetrics.Snapshot> snapshots) {
+        CommandMetrics metrics = command.getMetrics();
+        snapshots.put(path, reset ? metrics.snapshotAndReset() : metrics.snapshot());
+        for (Command child : command.getChildren()) {
+            collectMetrics(child, path + " " + child.getName(), reset, snapshots);
+        }
+    }
+
+    /**
+     * Resets the metrics of every command.
+     */
+    public void resetMetrics() {
+        getMetrics(true);
+    }
+
+    /**
+     * Returns the dispatcher async commands are run on, or null if they run
+     * synchronously.
+     */
+    public AsyncDispatcher getAsyncDispatcher() {
+        return asyncDispatcher;
+    }
+
+    /**
+     * Sets the dispatcher async commands are run on.
+     */
+    public void setAsyncDispatcher(AsyncDispatcher asyncDispatcher) {
+        this.asyncDispatcher = asyncDispatcher;
+    }
+
+    /**
+     * Returns the log executions are recorded to, or null.
+     */
+    public AuditLog getAuditLog() {
+        return auditLog;
+    }
+
+    /**
+     * Sets the log every execution of this manager's commands is recorded
+     * to, or null to stop recording.
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Returns the watchdog slow executions are reported to, or null.
+     */
+    public Watchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Sets the watchdog that samples and reports executions of this
+     * manager's commands running past their threshold, or null to stop
+     * watching them.
+     */
+    public void setWatchdog(Watchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    /**
+     * Returns the queue long running work of this manager's commands is
+     * handed to, or null.
+     */
+    public WorkQueue getWorkQueue() {
+        return workQueue;
+    }
+
+    /**
+     * Sets the queue executors of this manager's commands can hand long
+     * running work to through {@link Command#getWorkQueue()}.
+     */
+    public void setWorkQueue(WorkQueue workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    /**
+     * Returns the help index of this manager's commands, with eight commands
+     * per page.
+     */
+    public HelpIndex getHelpIndex() {
+        HelpIndex helpIndex = this.helpIndex;
+        if (helpIndex == null) {
+            this.helpIndex = helpIndex = new HelpIndex(this, 8);
+        }
+        return helpIndex;
+    }
+
+    /**
+     * Returns the registry changes to the command tree go through.
+     */
+    Registry getRegistry() {
+        return registry;
+    }
+
     /**
      * Returns a preinitialized AnnotatedCommandExecutorFactory
      */
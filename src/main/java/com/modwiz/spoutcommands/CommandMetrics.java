@@ -0,0 +1,222 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Invocation, failure and latency statistics of a single {@link Command}.
+ * Recording never locks, so it is safe from any thread.
+ */
+public class CommandMetrics {
+    /**
+     * Number of latency buckets. Bucket 0 counts executions that took less
+     * than a microsecond, bucket {@code i} those that took less than
+     * {@code 2^i} microseconds and at least half that.
+     */
+    public static final int BUCKETS = 32;
+
+    /**
+     * Reasons an invocation can fail.
+     */
+    public enum Failure {
+        /**
+         * The source lacked the command's permission.
+         */
+        PERMISSION,
+        /**
+         * The argument count was out of the command's bounds.
+         */
+        ARGUMENT_BOUNDS,
+        /**
+         * The source was on cooldown or over the command's rate limit.
+         */
+        RATE_LIMIT,
+        /**
+         * The executor was missing or threw an exception.
+         */
+        EXECUTOR,
+        /**
+         * An argument violated one of the command's constraints.
+         */
+        ARGUMENT_CONSTRAINT,
+        /**
+         * A subcommand was given that the command does not have.
+         */
+        UNKNOWN_COMMAND
+    }
+
+    private final StripedCounter invocations = new StripedCounter();
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final StripedCounter[] failures = new StripedCounter[Failure.values().length];
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+
+    CommandMetrics() {
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = new StripedCounter();
+        }
+    }
+
+    void recordInvocation(long nanos) {
+        invocations.increment();
+        totalNanos.add(nanos);
+        latency.getAndIncrement(bucket(nanos));
+    }
+
+    void recordFailure(Failure failure) {
+        failures[failure.ordinal()].increment();
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the current values.
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Returns the current values and resets them to zero.
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * Resets all values to zero.
+     */
+    public void reset() {
+        snapshot(true);
+    }
+
+    private Snapshot snapshot(boolean reset) {
+        long[] failureCounts = new long[failures.length];
+        for (int i = 0; i < failures.length; i++) {
+            failureCounts[i] = reset ? failures[i].sumThenReset() : failures[i].sum();
+        }
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = reset ? latency.getAndSet(i, 0) : latency.get(i);
+        }
+        return new Snapshot(reset ? invocations.sumThenReset() : invocations.sum(),
+                reset ? totalNanos.sumThenReset() : totalNanos.sum(), failureCounts, buckets);
+    }
+
+    /**
+     * An immutable copy of a command's metrics.
+     */
+    public static class Snapshot {
+        private final long invocations, totalNanos;
+        private final long[] failures, buckets;
+
+        private Snapshot(long invocations, long totalNanos, long[] failures, long[] buckets) {
+            this.invocations = invocations;
+            this.totalNanos = totalNanos;
+            this.failures = failures;
+            this.buckets = buckets;
+        }
+
+        /**
+         * Returns the number of times the executor was invoked.
+         */
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Returns the number of failures of the specified kind.
+         */
+        public long getFailures(Failure failure) {
+            return failures[failure.ordinal()];
+        }
+
+        /**
+         * Returns the number of failures of any kind.
+         */
+        public long getFailures() {
+            long sum = 0;
+            for (long count : failures) {
+                sum += count;
+            }
+            return sum;
+        }
+
+        /**
+         * Returns the total time spent in the executor in nanoseconds.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns the mean executor time in nanoseconds.
+         */
+        public long getMeanNanos() {
+            return invocations == 0 ? 0 : totalNanos / invocations;
+        }
+
+        /**
+         * Returns the number of executions that fell into the latency bucket.
+         */
+        public long getBucket(int bucket) {
+            return buckets[bucket];
+        }
+
+        /**
+         * Returns an upper bound in microseconds for the executor time below
+         * which the specified fraction of invocations completed.
+         *
+         * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+         */
+        public long getPercentileMicros(double fraction) {
+            long total = 0;
+            for (long count : buckets) {
+                total += count;
+            }
+            long threshold = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= threshold && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "invocations=" + invocations + ", failures=" + getFailures() + ", mean="
+                    + getMeanNanos() / 1000 + "us, p99<" + getPercentileMicros(0.99) + "us";
+        }
+    }
+}
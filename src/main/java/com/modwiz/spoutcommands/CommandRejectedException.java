@@ -0,0 +1,143 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.command.CommandException;
+
+/**
+ * A {@link CommandException} that does not capture a stack trace, for
+ * expected rejections that are thrown often and only reported to the
+ * sender. The message is formatted when it is first requested, and
+ * rejections without arguments are cached and shared, so rejecting an
+ * invocation costs next to nothing.
+ * <p>
+ * {@link CommandException} does not offer the constructor that disables
+ * suppression, so a shared rejection is only passed around inside the
+ * command tree; callers that get it thrown receive a private copy, see
+ * {@link #unshared()}.
+ */
+public class CommandRejectedException extends CommandException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Why an invocation was rejected.
+     */
+    public enum Reason {
+        /** The command has no executor. */
+        NO_EXECUTOR,
+        /** No command or subcommand matches the given name. */
+        UNKNOWN_COMMAND,
+        /** The source lacks the command's permission. */
+        PERMISSION,
+        /** The source is on cooldown or over the rate limit. */
+        RATE_LIMIT,
+        /** Too few or too many arguments were given. */
+        ARGUMENT_BOUNDS,
+        /** An argument is missing or has the wrong type. */
+        INVALID_ARGUMENT,
+        /** A player or world named by an argument does not exist. */
+        NOT_FOUND,
+        /** The command could not be queued for async execution. */
+        BUSY,
+        /** The executor failed with an unexpected exception. */
+        ERROR,
+        /** Any other reason given by an executor. */
+        OTHER
+    }
+
+    private final Reason reason;
+    private final String format;
+    private final Object[] args;
+    private final boolean shared;
+    private volatile String message;
+
+    public CommandRejectedException(String message) {
+        this(Reason.OTHER, message);
+    }
+
+    public CommandRejectedException(Reason reason, String message) {
+        this(reason, message, null, null, false);
+    }
+
+    public CommandRejectedException(Reason reason, String message, Throwable cause) {
+        this(reason, message, null, cause, false);
+    }
+
+    private CommandRejectedException(Reason reason, String format, Object[] args, Throwable cause, boolean shared) {
+        super(null, cause);
+        this.reason = reason;
+        this.format = format;
+        this.args = args;
+        this.shared = shared;
+    }
+
+    /**
+     * Returns a rejection to be cached and returned by the command tree. It
+     * must not be thrown to callers other than through {@link #unshared()}.
+     */
+    static CommandRejectedException shared(Reason reason, String message) {
+        return new CommandRejectedException(reason, message, null, null, true);
+    }
+
+    /**
+     * Returns this rejection, or a copy of it if it is shared, so the
+     * suppressed exceptions a caller may add never reach the cached instance.
+     */
+    CommandRejectedException unshared() {
+        return shared ? new CommandRejectedException(reason, format, args, getCause(), false) : this;
+    }
+
+    /**
+     * Returns a rejection whose message is only formatted, with
+     * {@link String#format(String, Object...)}, if it is requested.
+     */
+    public static CommandRejectedException format(Reason reason, String format, Object... args) {
+        return new CommandRejectedException(reason, format, args, null, false);
+    }
+
+    /**
+     * Returns why the invocation was rejected.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String getMessage() {
+        String message = this.message;
+        if (message == null && format != null) {
+            this.message = message = args == null ? format : String.format(format, args);
+        }
+        return message;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paginated help for the commands of a {@link CommandManager}.
+ * <p>
+ * The tree is rendered once into a list of lines in depth-first order, so
+ * the help of any command is a contiguous range of it, and rendered again
+ * after the next change to the tree. Which lines a source may see only
+ * depends on which of the tree's permissions it has, so the visible lines
+ * are cached per combination of permissions and a page costs a binary
+ * search and a copy of its lines.
+ */
+public class HelpIndex {
+    private static final int MAX_PROFILES = 256;
+    private static final Comparator<Command> BY_NAME = new Comparator<Command>() {
+        public int compare(Command a, Command b) {
+            return a.getName().compareToIgnoreCase(b.getName());
+        }
+    };
+    private final CommandManager manager;
+    private final int pageSize;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates a help index.
+     *
+     * @param manager whose commands are listed
+     * @param pageSize number of commands per page
+     */
+    public HelpIndex(CommandManager manager, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.manager = manager;
+        this.pageSize = pageSize;
+    }
+
+    private static final class Entry {
+        private final String line;
+        private final int[] permissions;
+
+        private Entry(String line, int[] permissions) {
+            this.line = line;
+            this.permissions = permissions;
+        }
+    }
+
+    private static final class Topic {
+        private final String path;
+        private final int start, end;
+
+        private Topic(String path, int start, int end) {
+            this.path = path;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Snapshot {
+        private final int version;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private final Map<Command, Topic> topics = new IdentityHashMap<Command, Topic>();
+        private final Map<String, Integer> permissionIndex = new HashMap<String, Integer>();
+        private final List<Command> permissions = new ArrayList<Command>();
+        private final Map<BitSet, int[]> visible = new ConcurrentHashMap<BitSet, int[]>();
+
+        private Snapshot(int version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * Returns the number of pages of help the source can see for a command.
+     *
+     * @param topic the command, or null for all commands
+     */
+    public int getPageCount(CommandSource source, Command topic) {
+        Snapshot snapshot = getSnapshot();
+        int[] visible = getVisible(snapshot, source);
+        int[] range = getRange(snapshot, visible, topic);
+        return range == null ? 0 : (range[1] - range[0] + pageSize - 1) / pageSize;
+    }
+
+    /**
+     * Returns a page of help for a command and its subcommands, headed by
+     * the page number. Pages are numbered from 1; numbers out of range are
+     * clamped.
+     *
+     * @param topic the command, or null for all commands
+     * @return the lines of the page, or an empty list if the source may not
+     *         use the command or it does not belong to the manager
+     */
+    public List<String> getPage(CommandSource source, Command topic, int page) {
+        Snapshot snapshot = getSnapshot();
+        int[] visible = getVisible(snapshot, source);
+        int[] range = getRange(snapshot, visible, topic);
+        if (range == null) {
+            return Collections.emptyList();
+        }
+
+        int pages = Math.max(1, (range[1] - range[0] + pageSize - 1) / pageSize);
+        page = Math.min(Math.max(page, 1), pages);
+        int from = range[0] + (page - 1) * pageSize;
+        int to = Math.min(from + pageSize, range[1]);
+
+        List<String> lines = new ArrayList<String>(to - from + 1);
+        lines.add(ChatColor.YELLOW + "Help" + (topic == null ? "" : ": " + snapshot.topics.get(topic).path)
+                + " (" + page + "/" + pages + ")");
+        for (int i = from; i < to; i++) {
+            lines.add(snapshot.entries.get(visible[i]).line);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the range of visible lines for the topic, or null if the topic
+     * itself is not visible.
+     */
+    private static int[] getRange(Snapshot snapshot, int[] visible, Command topic) {
+        if (topic == null) {
+            return new int[] {0, visible.length};
+        }
+        Topic entries = snapshot.topics.get(topic);
+        if (entries == null) {
+            return null;
+        }
+        int from = lowerBound(visible, entries.start);
+        if (from == visible.length || visible[from] != entries.start) {
+            return null;
+        }
+        return new int[] {from, lowerBound(visible, entries.end)};
+    }
+
+    private static int lowerBound(int[] values, int key) {
+        int index = Arrays.binarySearch(values, key);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Returns the sorted positions of the lines the source may see.
+     */
+    private static int[] getVisible(Snapshot snapshot, CommandSource source) {
+        BitSet held = new BitSet(snapshot.permissions.size());
+        for (int i = 0; i < snapshot.permissions.size(); i++) {
+            if (snapshot.permissions.get(i).isPermitted(source)) {
+                held.set(i);
+            }
+        }
+
+        int[] visible = snapshot.visible.get(held);
+        if (visible == null) {
+            visible = new int[snapshot.entries.size()];
+            int count = 0;
+            for (int i = 0; i < snapshot.entries.size(); i++) {
+                if (isVisible(snapshot.entries.get(i), held)) {
+                    visible[count++] = i;
+                }
+            }
+            visible = Arrays.copyOf(visible, count);
+            if (snapshot.visible.size() < MAX_PROFILES) {
+                snapshot.visible.put(held, visible);
+            }
+        }
+        return visible;
+    }
+
+    private static boolean isVisible(Entry entry, BitSet held) {
+        for (int permission : entry.permissions) {
+            if (!held.get(permission)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the rendered tree, rendering it again if it has changed.
+     */
+    private Snapshot getSnapshot() {
+        Registry registry = manager.getRegistry();
+        Registry.Snapshot tree = registry.acquire();
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null || snapshot.version != tree.version() || registry.isUpdating()) {
+            snapshot = new Snapshot(tree.version());
+            render(snapshot, tree, manager.getCommands(tree), "/", new int[0]);
+            if (!registry.isUpdating()) {
+                this.snapshot = snapshot;
+            }
+        }
+        return snapshot;
+    }
+
+    private static void render(Snapshot snapshot, Registry.Snapshot tree, Collection<Command> commands, String prefix, int[] permissions) {
+        List<Command> sorted = new ArrayList<Command>(commands);
+        Collections.sort(sorted, BY_NAME);
+        for (Command command : sorted) {
+            String path = prefix + command.getName();
+            int[] required = permissions;
+            if (command.getPermission() != null) {
+                required = Arrays.copyOf(permissions, permissions.length + 1);
+                required[permissions.length] = getPermissionIndex(snapshot, command);
+            }
+
+            int start = snapshot.entries.size();
+            snapshot.entries.add(new Entry(render(command, path), required));
+            render(snapshot, tree, command.getChildren(tree), path + " ", required);
+            snapshot.topics.put(command, new Topic(path, start, snapshot.entries.size()));
+        }
+    }
+
+    private static String render(Command command, String path) {
+        StringBuilder line = new StringBuilder().append(ChatColor.GOLD).append(path);
+        if (command.getUsage() != null && !command.getUsage().isEmpty()) {
+            line.append(' ').append(command.getUsage());
+        }
+        if (command.getHelp() != null && !command.getHelp().isEmpty()) {
+            line.append(ChatColor.WHITE).append(": ").append(command.getHelp());
+        }
+        return line.toString();
+    }
+
+    private static int getPermissionIndex(Snapshot snapshot, Command command) {
+        Integer index = snapshot.permissionIndex.get(command.getPermission());
+        if (index == null) {
+            index = snapshot.permissions.size();
+            snapshot.permissionIndex.put(command.getPermission(), index);
+            snapshot.permissions.add(command);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interns command permissions to integer ids, so a source can remember
+ * which of them were granted and answer repeated checks with bit tests
+ * instead of permission map lookups.
+ * <p>
+ * Results are only remembered by a single {@link WrappedCommandSource},
+ * which is created for each command the server dispatches, so a change to
+ * the sender's permissions applies from the next command on.
+ */
+public final class PermissionCache {
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
+    private PermissionCache() {
+    }
+
+    /**
+     * Returns the id of the specified permission, assigning one if needed.
+     */
+    static int intern(String permission) {
+        Integer id = ids.get(permission);
+        if (id == null) {
+            Integer assigned = nextId.getAndIncrement();
+            id = ids.putIfAbsent(permission, assigned);
+            if (id == null) {
+                id = assigned;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Granted and known permission ids of a single source. A permission is
+     * only queried from the sender the first time its id is tested, and
+     * nothing is allocated before then.
+     */
+    static final class Bits {
+        private long[] known, granted;
+
+        synchronized boolean has(CommandSender sender, int id, String permission) {
+            if (id < 0) {
+                return sender.hasPermission(permission);
+            }
+
+            int word = id >>> 6;
+            long bit = 1L << id;
+            if (known == null) {
+                known = new long[word + 1];
+                granted = new long[word + 1];
+            } else if (word >= known.length) {
+                int length = Math.max(word + 1, known.length * 2);
+                long[] grownKnown = new long[length], grownGranted = new long[length];
+                System.arraycopy(known, 0, grownKnown, 0, known.length);
+                System.arraycopy(granted, 0, grownGranted, 0, granted.length);
+                known = grownKnown;
+                granted = grownGranted;
+            }
+
+            if ((known[word] & bit) == 0) {
+                if (sender.hasPermission(permission)) {
+                    granted[word] |= bit;
+                }
+                known[word] |= bit;
+            }
+            return (granted[word] & bit) != 0;
+        }
+
+        synchronized void clear() {
+            known = null;
+            granted = null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Sorted index of online players by lower-cased name, kept current by join
+ * and quit listeners. Once {@link #install(Plugin) installed},
+ * {@link CommandArguments} resolves player arguments through it instead of
+ * scanning every online player, until it is
+ * {@link #uninstall(Plugin) uninstalled} when the plugin is disabled.
+ */
+public final class PlayerIndex implements Listener {
+    private static volatile PlayerIndex instance;
+    private final Plugin plugin;
+    private final ConcurrentSkipListMap<String, Player> players = new ConcurrentSkipListMap<String, Player>();
+
+    private PlayerIndex(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Installs the index, registering its listeners under the plugin and
+     * adding the players that are already online. An index left installed
+     * by a plugin that has since been disabled is replaced.
+     */
+    public static synchronized PlayerIndex install(Plugin plugin) {
+        if (instance != null && !instance.plugin.isEnabled()) {
+            uninstall(instance.plugin);
+        }
+        if (instance == null) {
+            PlayerIndex index = new PlayerIndex(plugin);
+            for (Player player : plugin.getServer().getOnlinePlayers()) {
+                index.add(player);
+            }
+            plugin.getServer().getPluginManager().registerEvents(index, plugin);
+            instance = index;
+        }
+        return instance;
+    }
+
+    /**
+     * Removes the index installed by the plugin, if any, so player lookups
+     * go through the server again. Call it from the plugin's
+     * {@code onDisable}; a stale index would keep the players of before a
+     * reload.
+     */
+    public static synchronized void uninstall(Plugin plugin) {
+        PlayerIndex index = instance;
+        if (index != null && index.plugin == plugin) {
+            instance = null;
+            HandlerList.unregisterAll(index);
+            index.players.clear();
+        }
+    }
+
+    /**
+     * Returns the installed index, or null if player lookups go through
+     * the server.
+     */
+    public static PlayerIndex getInstance() {
+        return instance;
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        add(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        players.remove(key(player.getName()), player);
+    }
+
+    private void add(Player player) {
+        players.put(key(player.getName()), player);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the online player with exactly the specified name, ignoring
+     * case, or null.
+     */
+    public Player getExact(String name) {
+        return players.get(key(name));
+    }
+
+    /**
+     * Returns the online player whose name starts with the specified prefix,
+     * ignoring case, or null. Like {@link org.bukkit.Server#getPlayer(String)},
+     * an exact match wins, then the shortest matching name.
+     */
+    public Player getMatch(String prefix) {
+        String key = key(prefix);
+        NavigableMap<String, Player> matches = players.tailMap(key, true);
+        Player best = null;
+        int bestLength = Integer.MAX_VALUE;
+        for (Iterator<Map.Entry<String, Player>> it = matches.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Player> entry = it.next();
+            String name = entry.getKey();
+            if (!name.startsWith(key)) {
+                break;
+            }
+            if (name.length() < bestLength) {
+                best = entry.getValue();
+                bestLength = name.length();
+                if (bestLength == key.length()) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds the names of online players starting with the specified prefix,
+     * ignoring case, in alphabetical order.
+     */
+    public void complete(String prefix, List<String> completions) {
+        String key = key(prefix);
+        for (Map.Entry<String, Player> entry : players.tailMap(key, true).entrySet()) {
+            if (!entry.getKey().startsWith(key)) {
+                break;
+            }
+            completions.add(entry.getValue().getName());
+        }
+    }
+}
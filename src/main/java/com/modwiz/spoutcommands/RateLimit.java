@@ -0,0 +1,169 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often each sender may use a command, as a token bucket that
+ * holds a number of permits and refills one every interval. A cooldown is
+ * a bucket with a single permit.
+ * <p>
+ * The bucket of a sender is one timestamp, the time at which it would be
+ * full again, updated with compare-and-set. Full buckets are equivalent to
+ * absent ones and are swept out while acquiring, so the table only holds
+ * senders that recently used the command.
+ */
+public class RateLimit {
+    private static final int SWEEP_INTERVAL = 256;
+    private final long interval, burst;
+    private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicInteger acquisitions = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private RateLimit(long interval, int permits) {
+        if (interval <= 0 || permits <= 0) {
+            throw new IllegalArgumentException("Rate limits need a positive interval and number of permits");
+        }
+        this.interval = interval;
+        this.burst = interval * (permits - 1);
+    }
+
+    /**
+     * Returns a limit allowing one use per sender every duration.
+     */
+    public static RateLimit cooldown(long duration, TimeUnit unit) {
+        return new RateLimit(unit.toNanos(duration), 1);
+    }
+
+    /**
+     * Returns a limit allowing each sender a burst of the specified number
+     * of uses, refilled at that many uses per period. A sender starting
+     * with a full bucket may use up to {@code 2 * permits - 1} within a
+     * single period; over longer spans the rate stays at
+     * {@code permits} per period.
+     */
+    public static RateLimit perPeriod(int permits, long period, TimeUnit unit) {
+        return new RateLimit(Math.max(unit.toNanos(period) / Math.max(permits, 1), 1), permits);
+    }
+
+    /**
+     * Returns the nanoseconds until the sender could acquire a permit, or
+     * zero if one is available. Nothing is taken.
+     */
+    long peek(String sender) {
+        AtomicLong bucket = buckets.get(sender);
+        return bucket == null ? 0 : Math.max(bucket.get() - burst - System.nanoTime(), 0);
+    }
+
+    /**
+     * Returns the nanoseconds until the sender could acquire a permit, or
+     * zero if one is available, counting a rejection if it has to wait.
+     * Nothing is taken.
+     */
+    long check(String sender) {
+        long wait = peek(sender);
+        if (wait > 0) {
+            rejected.incrementAndGet();
+        }
+        return wait;
+    }
+
+    /**
+     * Takes a permit for the sender.
+     *
+     * @return zero if a permit was taken, otherwise the nanoseconds until
+     *         one is available
+     */
+    long acquire(String sender) {
+        long now = System.nanoTime();
+        if (acquisitions.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            sweep(now);
+        }
+
+        AtomicLong bucket = buckets.get(sender);
+        if (bucket == null) {
+            bucket = buckets.putIfAbsent(sender, new AtomicLong(now + interval));
+            if (bucket == null) {
+                return 0;
+            }
+        }
+        while (true) {
+            long full = bucket.get();
+            long wait = full - burst - now;
+            if (wait > 0) {
+                rejected.incrementAndGet();
+                return wait;
+            }
+            if (bucket.compareAndSet(full, Math.max(full - now, 0) + now + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    private void sweep(long now) {
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            if (entry.getValue().get() - now <= 0) {
+                buckets.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of uses that were rejected.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of senders currently tracked.
+     */
+    public int getTrackedSenders() {
+        return buckets.size();
+    }
+
+    /**
+     * Returns the interval in which a single permit is refilled.
+     */
+    public long getInterval(TimeUnit unit) {
+        return unit.convert(interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of permits a sender may use in a burst.
+     */
+    public int getPermits() {
+        return (int) (burst / interval) + 1;
+    }
+}
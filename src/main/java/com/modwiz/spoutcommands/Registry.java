@@ -0,0 +1,139 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serializes changes to a command tree and publishes them in batches.
+ * <p>
+ * Every {@link AliasIndex} of the tree belongs to one registry. Changes are
+ * made to private working copies while the registry is locked. When the
+ * outermost update ends they are published together as one immutable
+ * {@link Snapshot} of every index, replacing the previous one with a single
+ * volatile write. A lookup that resolves a whole path through one snapshot
+ * never locks and never sees half of an update.
+ */
+final class Registry {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<AliasIndex> dirty = new ArrayList<AliasIndex>();
+    private final AtomicInteger slots = new AtomicInteger();
+    private volatile Snapshot current = new Snapshot(0, new AliasIndex.Table[0]);
+
+    /**
+     * The published tables of every index of the tree, by slot.
+     */
+    static final class Snapshot {
+        private final int version;
+        private final AliasIndex.Table[] tables;
+
+        private Snapshot(int version, AliasIndex.Table[] tables) {
+            this.version = version;
+            this.tables = tables;
+        }
+
+        /**
+         * Returns the number of updates published before this snapshot.
+         */
+        int version() {
+            return version;
+        }
+
+        /**
+         * Returns the table of the index with the specified slot.
+         */
+        AliasIndex.Table table(int slot) {
+            AliasIndex.Table table = slot < tables.length ? tables[slot] : null;
+            return table == null ? AliasIndex.Table.EMPTY : table;
+        }
+    }
+
+    /**
+     * Returns the slot of a new index in the snapshots.
+     */
+    int register() {
+        return slots.getAndIncrement();
+    }
+
+    /**
+     * Starts an update. Updates nest; only the outermost one publishes.
+     */
+    void begin() {
+        lock.lock();
+    }
+
+    /**
+     * Ends an update, publishing the changed indexes if it is the outermost.
+     */
+    void end() {
+        try {
+            if (lock.getHoldCount() == 1) {
+                Snapshot current = this.current;
+                AliasIndex.Table[] tables = current.tables;
+                if (!dirty.isEmpty()) {
+                    tables = Arrays.copyOf(tables, Math.max(tables.length, slots.get()));
+                    for (AliasIndex index : dirty) {
+                        tables[index.getSlot()] = index.commit();
+                    }
+                    dirty.clear();
+                }
+                // a new version even without alias changes, for settings changed during the update
+                this.current = new Snapshot(current.version + 1, tables);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the calling thread is in an update.
+     */
+    boolean isUpdating() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Queues the index to be published when the update ends.
+     */
+    void markDirty(AliasIndex index) {
+        dirty.add(index);
+    }
+
+    /**
+     * Returns the last published snapshot. Reading it makes everything
+     * published by the last update, including command settings changed
+     * during it, visible to the calling thread.
+     */
+    Snapshot acquire() {
+        return current;
+    }
+}
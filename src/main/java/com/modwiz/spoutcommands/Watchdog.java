@@ -0,0 +1,405 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Reports executions that run longer than their command's threshold, with
+ * samples of where the executing thread spent its time.
+ * <p>
+ * Watching an execution only costs a thread local lookup and two ordered
+ * stores on the executing thread. A background thread checks the running
+ * executions every sampling interval, and once one is past its deadline
+ * takes a stack trace of its thread on every check until it ends. The
+ * executing thread then queues a {@link Report}, which the background
+ * thread hands to the {@link Listener}.
+ * <p>
+ * An execution nested in a watched one, e.g. an executor dispatching
+ * another command, is reported as part of the outer one.
+ */
+public class Watchdog implements Closeable {
+    private static final int MAX_SAMPLES = 1000;
+    private final Plugin plugin;
+    private final long threshold, interval;
+    private final List<Watch> watches = new CopyOnWriteArrayList<Watch>();
+    private final Queue<Report> reports = new ConcurrentLinkedQueue<Report>();
+    private final ThreadLocal<Watch> current = new ThreadLocal<Watch>() {
+        @Override
+        protected Watch initialValue() {
+            Watch watch = new Watch(Thread.currentThread());
+            watches.add(watch);
+            return watch;
+        }
+    };
+    private final Thread sampler;
+    private volatile Listener listener;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a watchdog and starts its sampling thread.
+     *
+     * @param plugin to name the sampling thread after and log reports to
+     * @param threshold for commands without their own, or 0 to only watch
+     *        commands with a threshold set
+     * @param interval between stack samples
+     * @param unit of the threshold and interval
+     */
+    public Watchdog(Plugin plugin, long threshold, long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive");
+        }
+        this.plugin = plugin;
+        this.threshold = Math.max(unit.toNanos(threshold), 0);
+        this.interval = unit.toNanos(interval);
+        this.listener = new Listener() {
+            public void onSlowCommand(Report report) {
+                Watchdog.this.plugin.getLogger().warning(report.toString());
+            }
+        };
+        this.sampler = new Thread(new Runnable() {
+            public void run() {
+                sample();
+            }
+        }, plugin.getName() + " Command Watchdog");
+        this.sampler.setDaemon(true);
+        this.sampler.start();
+    }
+
+    /**
+     * Receives the reports of slow executions, on the sampling thread.
+     */
+    public interface Listener {
+        void onSlowCommand(Report report);
+    }
+
+    /**
+     * Sets the listener reports are given to. By default they are logged
+     * as warnings.
+     */
+    public void setListener(Listener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener cannot be null");
+        }
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the threshold of commands without their own.
+     */
+    public long getThreshold(TimeUnit unit) {
+        return unit.convert(threshold, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the threshold in nanoseconds of a command with the specified
+     * one, which is 0 to use the default and negative to never report.
+     */
+    long getThreshold(long commandThreshold) {
+        return commandThreshold == 0 ? threshold : commandThreshold;
+    }
+
+    /**
+     * Starts watching an execution on the current thread.
+     *
+     * @param deadline {@link System#nanoTime()} after which it is slow
+     * @return the watch to end, or null if an execution is already watched
+     */
+    Watch start(long deadline) {
+        Watch watch = current.get();
+        long generation = watch.generation.get();
+        if ((generation & 1) != 0) {
+            return null;
+        }
+        watch.deadline.lazySet(deadline);
+        watch.generation.lazySet(generation + 1);
+        return watch;
+    }
+
+    /**
+     * Ends the execution of the watch, reporting it if it was slow.
+     *
+     * @param path the names the command was dispatched by
+     */
+    void end(Watch watch, Command command, String path, CommandSource source, CommandArguments args, long nanos, long threshold) {
+        long generation = watch.generation.get();
+        watch.generation.lazySet(generation + 1);
+        if (nanos < threshold) {
+            return;
+        }
+
+        List<StackTraceElement[]> samples;
+        synchronized (watch) {
+            if (watch.samplesGeneration == generation && !watch.samples.isEmpty()) {
+                samples = new ArrayList<StackTraceElement[]>(watch.samples);
+                watch.samples.clear();
+            } else {
+                samples = Collections.emptyList();
+            }
+        }
+        String arguments = args.length() == 0 ? "" : args.getJoinedString(0);
+        reports.offer(new Report(command, path, source.getName(), arguments, nanos, threshold, interval, samples));
+    }
+
+    /**
+     * Stops sampling and delivers the queued reports.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        while (true) {
+            boolean stopping = !running;
+            long now = System.nanoTime();
+            for (Watch watch : watches) {
+                if (!watch.thread.isAlive()) {
+                    watches.remove(watch);
+                    continue;
+                }
+                long generation = watch.generation.get();
+                if ((generation & 1) != 0 && now - watch.deadline.get() > 0 && watch.generation.get() == generation) {
+                    sample(watch, generation);
+                }
+            }
+
+            Report report;
+            while ((report = reports.poll()) != null) {
+                try {
+                    listener.onSlowCommand(report);
+                } catch (RuntimeException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Slow command listener failed", e);
+                }
+            }
+            if (stopping) {
+                break;
+            }
+            LockSupport.parkNanos(this, interval);
+        }
+    }
+
+    private void sample(Watch watch, long generation) {
+        synchronized (watch) {
+            if (watch.samplesGeneration != generation) {
+                watch.samples.clear();
+                watch.samplesGeneration = generation;
+            } else if (watch.samples.size() >= MAX_SAMPLES) {
+                return;
+            }
+        }
+
+        StackTraceElement[] stack = trim(watch.thread.getStackTrace());
+        synchronized (watch) {
+            // the execution may have ended while the stack was taken
+            if (watch.generation.get() == generation && watch.samplesGeneration == generation) {
+                watch.samples.add(stack);
+            }
+        }
+    }
+
+    /**
+     * Removes the frames of the dispatch below the executor, keeping those
+     * of any command it dispatched in turn.
+     */
+    private static StackTraceElement[] trim(StackTraceElement[] stack) {
+        for (int i = stack.length - 1; i >= 0; i--) {
+            if (stack[i].getClassName().equals(Command.class.getName()) && stack[i].getMethodName().equals("invoke")) {
+                StackTraceElement[] trimmed = new StackTraceElement[i];
+                System.arraycopy(stack, 0, trimmed, 0, i);
+                return trimmed;
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * The executions of one thread. Only that thread writes the generation,
+     * which is odd while an execution runs, and its deadline; the samples
+     * are of the generation they were taken in.
+     */
+    static final class Watch {
+        private final Thread thread;
+        private final AtomicLong generation = new AtomicLong();
+        private final AtomicLong deadline = new AtomicLong();
+        private final List<StackTraceElement[]> samples = new ArrayList<StackTraceElement[]>();
+        private long samplesGeneration = -1;
+
+        private Watch(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * An execution that ran past its threshold.
+     */
+    public static class Report {
+        private static final int HOTSPOTS = 5;
+        private final Command command;
+        private final String path, sender, arguments;
+        private final long nanos, threshold, interval;
+        private final List<StackTraceElement[]> samples;
+
+        private Report(Command command, String path, String sender, String arguments, long nanos, long threshold, long interval, List<StackTraceElement[]> samples) {
+            this.command = command;
+            this.path = path;
+            this.sender = sender;
+            this.arguments = arguments;
+            this.nanos = nanos;
+            this.threshold = threshold;
+            this.interval = interval;
+            this.samples = Collections.unmodifiableList(samples);
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+
+        /**
+         * Returns the space separated names from the command the dispatch
+         * started at to the executed one, e.g. {@code "region flag set"}.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the name of the source that executed the command.
+         */
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * Returns the arguments given to the executor, space separated.
+         */
+        public String getArguments() {
+            return arguments;
+        }
+
+        /**
+         * Returns how long the execution took.
+         */
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public long getThreshold(TimeUnit unit) {
+            return unit.convert(threshold, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the stack traces of the executing thread taken after the
+         * threshold passed, oldest first, without the frames below the
+         * executor.
+         */
+        public List<StackTraceElement[]> getSamples() {
+            return samples;
+        }
+
+        /**
+         * Returns the frames samples were most often taken in, with the
+         * number of samples of each, most frequent first.
+         */
+        public List<Map.Entry<StackTraceElement, Integer>> getHotspots() {
+            Map<StackTraceElement, Integer> counts = new HashMap<StackTraceElement, Integer>();
+            for (StackTraceElement[] sample : samples) {
+                if (sample.length > 0) {
+                    Integer count = counts.get(sample[0]);
+                    counts.put(sample[0], count == null ? 1 : count + 1);
+                }
+            }
+            List<Map.Entry<StackTraceElement, Integer>> hotspots = new ArrayList<Map.Entry<StackTraceElement, Integer>>(counts.entrySet());
+            Collections.sort(hotspots, new Comparator<Map.Entry<StackTraceElement, Integer>>() {
+                public int compare(Map.Entry<StackTraceElement, Integer> a, Map.Entry<StackTraceElement, Integer> b) {
+                    return b.getValue().compareTo(a.getValue());
+                }
+            });
+            return hotspots;
+        }
+
+        /**
+         * Returns the report as log lines: the execution, its hotspots and
+         * the full stack of the most frequent one.
+         */
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder();
+            report.append("Command /").append(getPath());
+            if (!arguments.isEmpty()) {
+                report.append(' ').append(arguments);
+            }
+            report.append(" by ").append(sender).append(" took ").append(millis(nanos))
+                    .append(" (threshold ").append(millis(threshold)).append(')');
+            List<Map.Entry<StackTraceElement, Integer>> hotspots = getHotspots();
+            if (hotspots.isEmpty()) {
+                return report.append(", no samples taken").toString();
+            }
+
+            report.append(", ").append(samples.size()).append(" samples every ").append(millis(interval)).append(':');
+            for (Map.Entry<StackTraceElement, Integer> hotspot : hotspots.subList(0, Math.min(HOTSPOTS, hotspots.size()))) {
+                report.append("\n  ").append(hotspot.getValue() * 100 / samples.size()).append("% ").append(hotspot.getKey());
+            }
+            StackTraceElement hottest = hotspots.get(0).getKey();
+            for (StackTraceElement[] sample : samples) {
+                if (sample.length > 0 && sample[0].equals(hottest)) {
+                    report.append("\nMost frequent stack:");
+                    for (StackTraceElement frame : sample) {
+                        report.append("\n  at ").append(frame);
+                    }
+                    break;
+                }
+            }
+            return report.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandException;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Runs long command work, such as giving items to every player, in small
+ * steps on the main thread without stalling the server.
+ * <p>
+ * Every tick the queue runs steps for at most its time budget, however
+ * many jobs are queued. The budget is shared round-robin between the
+ * senders with queued jobs, so one sender's jobs cannot starve another's;
+ * time a sender does not use goes to the others, and senders the budget
+ * did not reach go first on the next tick. A sender's own jobs run one
+ * after another. Senders are told of the progress of long jobs, and when
+ * a job finishes, fails or is cancelled.
+ * <p>
+ * Steps should take well under the budget, which is only checked between
+ * them.
+ */
+public class WorkQueue {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private final Plugin plugin;
+    private final long budget;
+    private final Queue<Job> submitted = new ConcurrentLinkedQueue<Job>();
+    private final Queue<Job> jobs = new ConcurrentLinkedQueue<Job>();
+    private final BukkitTask task;
+    private volatile boolean shutdown;
+
+    // state of the main thread
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+    private final ArrayDeque<Lane> order = new ArrayDeque<Lane>();
+
+    /**
+     * Creates a queue and schedules it to run every tick.
+     *
+     * @param plugin to schedule the queue under
+     * @param budget time the queued work may take per tick
+     * @param unit of the budget
+     */
+    public WorkQueue(Plugin plugin, long budget, TimeUnit unit) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive");
+        }
+        this.plugin = plugin;
+        this.budget = unit.toNanos(budget);
+        this.task = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+            public void run() {
+                tick();
+            }
+        }, 1L, 1L);
+    }
+
+    /**
+     * Incremental work of a command.
+     */
+    public interface Work {
+        /**
+         * Does the next step of the work, e.g. one player or one chunk.
+         * Called on the main thread.
+         *
+         * @return true if more steps remain
+         * @throws CommandException to stop the work and tell the sender why
+         */
+        boolean step() throws CommandException;
+    }
+
+    /**
+     * Queues work on behalf of a source. Safe to call from any thread.
+     *
+     * @param source to report progress to
+     * @param name of the work in messages, e.g. {@code "Region reset"}
+     * @param total number of steps, or 0 if unknown
+     * @param work to run
+     * @return the job, which may be used to follow or cancel it
+     * @throws IllegalStateException if the queue has been shut down
+     */
+    public Job submit(CommandSource source, String name, long total, Work work) {
+        if (shutdown) {
+            throw new IllegalStateException("Work queue has been shut down");
+        }
+        // messages are sent from the main thread, not buffered for an async executor
+        while (source instanceof AsyncDispatcher.DeferredCommandSource) {
+            source = ((AsyncDispatcher.DeferredCommandSource) source).getSource();
+        }
+        Job job = new Job(source, name, total, work);
+        jobs.add(job);
+        submitted.add(job);
+        // a shutdown racing the submit either cancelled the job or never saw it
+        if (shutdown && submitted.remove(job)) {
+            jobs.remove(job);
+            throw new IllegalStateException("Work queue has been shut down");
+        }
+        return job;
+    }
+
+    /**
+     * Returns the unfinished jobs of the source, oldest first.
+     */
+    public List<Job> getJobs(CommandSource source) {
+        List<Job> found = new ArrayList<Job>();
+        for (Job job : jobs) {
+            if (job.source.getName().equals(source.getName())) {
+                found.add(job);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Cancels the unfinished jobs of the source.
+     *
+     * @return the number of jobs cancelled
+     */
+    public int cancel(CommandSource source) {
+        int cancelled = 0;
+        for (Job job : getJobs(source)) {
+            if (job.cancel()) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Returns the number of unfinished jobs.
+     */
+    public int getPendingCount() {
+        return jobs.size();
+    }
+
+    /**
+     * Returns the time queued work may take per tick.
+     */
+    public long getBudget(TimeUnit unit) {
+        return unit.convert(budget, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops running work and cancels every unfinished job; later submits are
+     * rejected. Must be called on the main thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        task.cancel();
+        for (Job job : jobs) {
+            job.cancel();
+        }
+        Job job;
+        while ((job = submitted.poll()) != null) {
+            finish(job, ChatColor.RED + job.name + " was cancelled.");
+        }
+        for (Lane lane : order) {
+            while ((job = lane.jobs.poll()) != null) {
+                finish(job, ChatColor.RED + job.name + " was cancelled.");
+            }
+        }
+        lanes.clear();
+        order.clear();
+    }
+
+    private void tick() {
+        Job job;
+        while ((job = submitted.poll()) != null) {
+            String sender = job.source.getName();
+            Lane lane = lanes.get(sender);
+            if (lane == null) {
+                lanes.put(sender, lane = new Lane(sender));
+                order.add(lane);
+            }
+            lane.jobs.add(job);
+        }
+
+        long now = System.nanoTime();
+        long end = now + budget;
+        while (!order.isEmpty() && now - end < 0) {
+            // each lane gets an equal part of what is left of the round
+            int count = order.size();
+            for (int i = 0; i < count && now - end < 0; i++) {
+                Lane lane = order.poll();
+                try {
+                    now = run(lane, now + (end - now) / (count - i), now);
+                } finally {
+                    if (lane.jobs.isEmpty()) {
+                        lanes.remove(lane.sender);
+                    } else {
+                        order.add(lane);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs steps of the lane's jobs until the slice ends or no job is left.
+     *
+     * @return the time the lane stopped at
+     */
+    private long run(Lane lane, long sliceEnd, long now) {
+        Job job;
+        while ((job = lane.jobs.peek()) != null) {
+            if (job.cancelled) {
+                lane.jobs.poll();
+                finish(job, ChatColor.RED + job.name + " was cancelled.");
+                continue;
+            }
+            if (job.started == 0) {
+                job.started = job.lastReport = now;
+            }
+
+            boolean more;
+            String failure = null;
+            try {
+                more = job.work.step();
+            } catch (CommandException ce) {
+                more = false;
+                failure = ce.getMessage();
+            } catch (RuntimeException e) {
+                more = false;
+                failure = "An internal error occurred.";
+                plugin.getLogger().log(Level.SEVERE, "Unhandled exception running '" + job.name + "' for " + job.source.getName(), e);
+            } catch (Error e) {
+                // the job cannot continue, but the error is left to the scheduler
+                lane.jobs.poll();
+                finish(job, ChatColor.RED + job.name + " failed: An internal error occurred.");
+                throw e;
+            }
+            job.steps++;
+            now = System.nanoTime();
+
+            if (!more) {
+                lane.jobs.poll();
+                finish(job, failure != null ? ChatColor.RED + job.name + " failed: " + failure
+                        : ChatColor.GREEN + job.name + " finished in " + seconds(now - job.started) + ".");
+            } else if (now - job.lastReport >= PROGRESS_INTERVAL) {
+                job.lastReport = now;
+                job.source.sendMessage(ChatColor.YELLOW + job.name + ": " + job.getProgress());
+            }
+            if (now - sliceEnd >= 0) {
+                break;
+            }
+        }
+        return now;
+    }
+
+    private void finish(Job job, String message) {
+        synchronized (job) {
+            job.done = true;
+        }
+        jobs.remove(job);
+        job.source.sendMessage(message);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.1fs", nanos / 1e9);
+    }
+
+    /**
+     * The jobs of one sender, oldest first.
+     */
+    private static final class Lane {
+        private final String sender;
+        private final Queue<Job> jobs = new ArrayDeque<Job>();
+
+        private Lane(String sender) {
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * Work queued on behalf of a source.
+     */
+    public static class Job {
+        private final CommandSource source;
+        private final String name;
+        private final long total;
+        private final Work work;
+        private volatile long steps;
+        private volatile boolean cancelled, done;
+        // main thread only
+        private long started, lastReport;
+
+        private Job(CommandSource source, String name, long total, Work work) {
+            this.source = source;
+            this.name = name;
+            this.total = total;
+            this.work = work;
+        }
+
+        public CommandSource getSource() {
+            return source;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of steps run so far.
+         */
+        public long getSteps() {
+            return steps;
+        }
+
+        /**
+         * Returns the total number of steps, or 0 if unknown.
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the progress as shown to the source, e.g. {@code "45% (450/1000)"}.
+         */
+        public String getProgress() {
+            long steps = this.steps;
+            if (total <= 0) {
+                return steps + " steps";
+            }
+            return Math.min(steps * 100 / total, 100) + "% (" + steps + "/" + total + ")";
+        }
+
+        /**
+         * Returns true once the job has finished, failed or been cancelled.
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels the job before its next step. Safe to call from any thread.
+         *
+         * @return false if the job had already finished or been cancelled
+         */
+        public synchronized boolean cancel() {
+            if (done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+    }
+}
@@ -28,6 +28,7 @@
 package com.modwiz.spoutcommands;
 
 import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
 import org.bukkit.Server;
 import org.bukkit.command.CommandSender;
 import org.bukkit.permissions.Permission;
@@ -42,22 +43,48 @@ import java.util.Set;
  */
 public class WrappedCommandSource implements CommandSource {
     private final CommandSender sender;
+    private final CommandManager manager;
+    private final PermissionCache.Bits permissions = new PermissionCache.Bits();
 
     public WrappedCommandSource(CommandSender sender) {
+        this(sender, null);
+    }
+
+    /**
+     * Wraps a sender whose {@link #processCommand(String, String...)} runs
+     * commands of the specified manager directly.
+     */
+    public WrappedCommandSource(CommandSender sender, CommandManager manager) {
         super();
         this.sender = sender;
+        this.manager = manager;
     }
 
     public CommandSender getSender() {
         return sender;
     }
 
+    /**
+     * Processes a command. Commands of this source's {@link CommandManager}
+     * that are registered with Bukkit as this plugin's commands are executed
+     * directly with the given arguments; any other command is dispatched
+     * through Bukkit.
+     */
     public void processCommand(String command, String... args) {
-        String commandLine = command;
-        for (int i = 0; i <args.length; i++) {
-            commandLine += " " + args[i];
+        Command cmd = manager == null ? null : manager.getCommand(command, false);
+        if (cmd != null && cmd.isRegisteredAs(command)) {
+            String error = cmd.tryExecute(this, new CommandArguments(args), null);
+            if (error != null) {
+                sendMessage(ChatColor.RED + error);
+            }
+            return;
+        }
+
+        StringBuilder commandLine = new StringBuilder(command);
+        for (String arg : args) {
+            commandLine.append(' ').append(arg);
         }
-        Bukkit.dispatchCommand(sender, commandLine);
+        Bukkit.dispatchCommand(sender, commandLine.toString());
     }
 
     public void sendMessage(String message) {
@@ -92,28 +119,51 @@ public class WrappedCommandSource implements CommandSource {
         return sender.hasPermission(perm);
     }
 
+    /**
+     * Tests an interned permission against the results this source has
+     * cached. Permissions changed other than through this source are only
+     * seen by sources created afterwards.
+     */
+    boolean hasPermission(int id, String name) {
+        return permissions.has(getSender(), id, name);
+    }
+
+    private void invalidatePermissions() {
+        permissions.clear();
+    }
+
     public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value) {
-        return sender.addAttachment(plugin, name, value);
+        PermissionAttachment attachment = sender.addAttachment(plugin, name, value);
+        invalidatePermissions();
+        return attachment;
     }
 
     public PermissionAttachment addAttachment(Plugin plugin) {
-        return sender.addAttachment(plugin);
+        PermissionAttachment attachment = sender.addAttachment(plugin);
+        invalidatePermissions();
+        return attachment;
     }
 
     public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value, int ticks) {
-        return sender.addAttachment(plugin, name, value, ticks);
+        PermissionAttachment attachment = sender.addAttachment(plugin, name, value, ticks);
+        invalidatePermissions();
+        return attachment;
     }
 
     public PermissionAttachment addAttachment(Plugin plugin, int ticks) {
-        return sender.addAttachment(plugin, ticks);
+        PermissionAttachment attachment = sender.addAttachment(plugin, ticks);
+        invalidatePermissions();
+        return attachment;
     }
 
     public void removeAttachment(PermissionAttachment attachment) {
         sender.removeAttachment(attachment);
+        invalidatePermissions();
     }
 
     public void recalculatePermissions() {
         sender.recalculatePermissions();
+        invalidatePermissions();
     }
 
     public Set<PermissionAttachmentInfo> getEffectivePermissions() {
@@ -126,6 +176,7 @@ public class WrappedCommandSource implements CommandSource {
 
     public void setOp(boolean value) {
         sender.setOp(value);
+        invalidatePermissions();
     }
 
 }
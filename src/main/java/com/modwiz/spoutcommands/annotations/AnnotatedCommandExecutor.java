@@ -30,42 +30,97 @@ package com.modwiz.spoutcommands.annotations;
 import com.modwiz.spoutcommands.*;
 import org.bukkit.command.*;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 /**
- * Allows for method registration of commands.
+ * Executes a single annotated command method through a method handle
+ * bound to its instance when the command is registered. Methods taking
+ * typed parameters instead of {@link CommandArguments} have their
+ * arguments converted by a {@link ParameterBinding} and spread into the
+ * handle.
  */
 public class AnnotatedCommandExecutor implements Executor {
-    private final Map<com.modwiz.spoutcommands.Command, Method> commandMap;
-    private final Object instance;
+    private static final MethodType EXECUTE_TYPE = MethodType.methodType(void.class, CommandSource.class, CommandArguments.class);
+    private static final MethodType BOUND_TYPE = MethodType.methodType(void.class, Object[].class);
+    private final MethodHandle handle;
+    private final ParameterBinding binding;
+    private final Map<com.modwiz.spoutcommands.Command, AnnotatedCommandExecutor> executors;
 
+    /**
+     * Creates an executor running the methods mapped to the commands it is
+     * set on; commands without a method are ignored.
+     *
+     * @deprecated each method gets its own executor, use
+     *             {@link #AnnotatedCommandExecutor(Object, Method)}
+     */
+    @Deprecated
     public AnnotatedCommandExecutor(Object instance, Map<com.modwiz.spoutcommands.Command, Method> commandMap) {
-        this.instance = instance;
-        this.commandMap = commandMap;
+        this.handle = null;
+        this.binding = null;
+        this.executors = new IdentityHashMap<com.modwiz.spoutcommands.Command, AnnotatedCommandExecutor>();
+        for (Map.Entry<com.modwiz.spoutcommands.Command, Method> entry : commandMap.entrySet()) {
+            executors.put(entry.getKey(), new AnnotatedCommandExecutor(instance, entry.getValue()));
+        }
     }
 
-    public void execute(CommandSource source, com.modwiz.spoutcommands.Command command, CommandArguments args) throws CommandException{
-        Method method = commandMap.get(command);
-        if (method != null) {
-            method.setAccessible(true);
-            try {
-                method.invoke(instance, source, args);
-            } catch (InvocationTargetException e) {
-                Throwable cause = e.getCause();
-                if (cause == null) {
-                    throw new CommandException(e.getMessage());
-                }
+    public AnnotatedCommandExecutor(Object instance, Method method) {
+        this.executors = null;
+        method.setAccessible(true);
+        if (AnnotatedCommandExecutorFactory.hasArgumentsParameter(method)) {
+            this.binding = null;
+        } else {
+            this.binding = ParameterBinding.of(method.getParameterTypes());
+            if (binding == null) {
+                throw new IllegalArgumentException("Unsupported parameters of command method " + method);
+            }
+        }
+        try {
+            MethodHandle handle = MethodHandles.lookup().unreflect(method).asFixedArity().bindTo(instance);
+            if (binding == null) {
+                this.handle = handle.asType(EXECUTE_TYPE);
+            } else {
+                this.handle = handle.asType(handle.type().generic().changeReturnType(void.class))
+                        .asSpreader(Object[].class, method.getParameterTypes().length)
+                        .asType(BOUND_TYPE);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access command method " + method, e);
+        }
+    }
 
-                if (cause instanceof CommandException) {
-                    throw (CommandException) cause;
-                }
+    /**
+     * Returns the binding of the method's typed parameters, or null if it
+     * takes {@link CommandArguments}.
+     */
+    ParameterBinding getBinding() {
+        return binding;
+    }
 
-                throw new CommandException(e.getMessage(), e.getCause());
-            } catch (IllegalAccessException e) {
-                throw new CommandException(e.getMessage(), e.getCause());
+    public void execute(CommandSource source, com.modwiz.spoutcommands.Command command, CommandArguments args) throws CommandException {
+        if (executors != null) {
+            AnnotatedCommandExecutor executor = executors.get(command);
+            if (executor != null) {
+                executor.execute(source, command, args);
+            }
+            return;
+        }
+        try {
+            if (binding == null) {
+                handle.invokeExact(source, args);
+            } else {
+                handle.invokeExact(binding.bind(source, args));
             }
+        } catch (CommandException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CommandRejectedException(CommandRejectedException.Reason.ERROR, t.getMessage(), t);
         }
     }
 
@@ -29,13 +29,15 @@ package com.modwiz.spoutcommands.annotations;
 
 import com.modwiz.spoutcommands.*;
 import com.modwiz.spoutcommands.Command;
-import com.modwiz.spoutcommands.annotations.AnnotatedCommandExecutor;
 import org.bukkit.Bukkit;
 import org.bukkit.command.PluginCommand;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by starb_000 on 6/13/13.
@@ -55,43 +57,53 @@ public final class AnnotatedCommandExecutorFactory {
     }
 
     /**
-     * Register all the defined commands by the method in this class.
+     * Register all the defined commands by the method in this class. A
+     * {@link CommandRegistrar} generated for the class is used if present,
+     * otherwise the methods are found through reflection.
      *
      * @param parent to register commands under.
      */
-    public void register(Object instance, Command parent) {
-        Map<Command, Method> commandMap = new HashMap<Command, Method>();
-        for (Method method : instance.getClass().getMethods()) {
-            method.setAccessible(true);
-            // check if the method is valid
-            if (!isValidMethod(method)) {
-                continue;
+    @SuppressWarnings("unchecked")
+    public void register(Object instance, final Command parent) {
+        final List<Command> commands = new ArrayList<Command>();
+        CommandRegistrar.Binder binder = new CommandRegistrar.Binder() {
+            public void bind(CommandDefinition definition, Executor executor) {
+                commands.add(define(definition, executor, parent));
             }
+        };
 
-            // create the command
-            com.modwiz.spoutcommands.annotations.Command a = method.getAnnotation(com.modwiz.spoutcommands.annotations.Command.class);
-            Command command;
-            if (parent != null) { // parent specified? create child
-                command = parent.getChild(a.aliases()[0]);
-            } else { // no parent specified? create normal command
-                command = cmdManager.getCommand(a.aliases()[0]);
-            }
-
-            // set annotation data
-            command.addAlias(a.aliases());
-            command.setHelp(a.desc());
-            command.setUsage(a.usage());
-            command.setArgumentBounds(a.max(), a.min());
+        // publish the commands of the instance together, fully configured
+        cmdManager.beginUpdate();
+        try {
+            CommandRegistrar<Object> registrar = (CommandRegistrar<Object>) getRegistrar(instance.getClass());
+            if (registrar != null) {
+                registrar.register(instance, binder);
+            } else {
+                for (Method method : instance.getClass().getMethods()) {
+                    // check if the method is valid
+                    if (!isValidMethod(method)) {
+                        continue;
+                    }
 
-            // put the command in our map
-            commandMap.put(command, method);
+                    com.modwiz.spoutcommands.annotations.Command a = method.getAnnotation(com.modwiz.spoutcommands.annotations.Command.class);
+                    CommandDefinition definition = CommandDefinition.of(a);
+                    AnnotatedCommandExecutor executor = new AnnotatedCommandExecutor(instance, method);
+                    ParameterBinding binding = executor.getBinding();
+                    // typed parameters imply the bounds unless they are given
+                    if (binding != null && a.min() == 0 && a.max() == -1) {
+                        definition.bounds(binding.getMinArguments(), binding.getMaxArguments());
+                    }
+                    if (binding != null) {
+                        definition.constraints(getConstraints(method));
+                    }
+                    binder.bind(definition, executor);
+                }
+            }
+        } finally {
+            cmdManager.endUpdate();
         }
 
-        // set the executor of our commands
-        AnnotatedCommandExecutor exe = new AnnotatedCommandExecutor(instance, commandMap);
-        for (Command cmd : commandMap.keySet()) {
-            cmd.setExecutor(exe);
-
+        for (Command cmd : commands) {
             PluginCommand pluginCommand = Bukkit.getPluginCommand(cmd.getName());
             if (pluginCommand != null) {
                 if (parent == null) {
@@ -108,6 +120,87 @@ public final class AnnotatedCommandExecutorFactory {
         }
     }
 
+    private Command define(CommandDefinition definition, Executor executor, Command parent) {
+        // create the command
+        String[] aliases = definition.getAliases();
+        Command command;
+        if (parent != null) { // parent specified? create child
+            command = parent.getChild(aliases[0]);
+        } else { // no parent specified? create normal command
+            command = cmdManager.getCommand(aliases[0]);
+        }
+
+        // set annotation data
+        command.addAlias(aliases);
+        command.setHelp(definition.getDesc());
+        command.setUsage(definition.getUsage());
+        command.setArgumentBounds(definition.getMax(), definition.getMin());
+        command.setAsync(definition.isAsync());
+        command.setCommandLineParsing(definition.isFlags());
+        command.setCooldown(definition.getCooldown(), TimeUnit.MILLISECONDS);
+        command.setRateLimit(definition.getRate(), definition.getRatePeriod(), TimeUnit.MILLISECONDS);
+        command.setArgumentConstraints(definition.getConstraints());
+
+        command.setExecutor(executor);
+        return command;
+    }
+
+    /**
+     * Returns the generated registrar of the class, or null if the class
+     * was not compiled with the annotation processor.
+     */
+    private static CommandRegistrar<?> getRegistrar(Class<?> type) {
+        try {
+            Class<?> registrar = Class.forName(type.getName() + "$CommandRegistrar", true, type.getClassLoader());
+            return (CommandRegistrar<?>) registrar.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Could not create the registrar of " + type.getName(), e.getCause());
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the constraints declared on the typed parameters of the
+     * method, by argument index.
+     *
+     * @throws IllegalArgumentException if the remaining arguments are constrained
+     */
+    private static ArgumentConstraint[] getConstraints(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        Class<?>[] params = method.getParameterTypes();
+        ArgumentConstraint[] constraints = new ArgumentConstraint[params.length - 1];
+        for (int i = 1; i < params.length; i++) {
+            List<ArgumentConstraint> parameter = new ArrayList<ArgumentConstraint>();
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof Range) {
+                    parameter.add(ArgumentConstraints.range(((Range) annotation).min(), ((Range) annotation).max()));
+                } else if (annotation instanceof Matches) {
+                    parameter.add(ArgumentConstraints.pattern(((Matches) annotation).value()));
+                } else if (annotation instanceof OneOf) {
+                    parameter.add(ArgumentConstraints.oneOf(((OneOf) annotation).value()));
+                } else if (annotation instanceof Length) {
+                    parameter.add(ArgumentConstraints.length(((Length) annotation).min(), ((Length) annotation).max()));
+                }
+            }
+            if (!parameter.isEmpty()) {
+                if (params[i].equals(String[].class)) {
+                    throw new IllegalArgumentException("Remaining arguments cannot be constrained: " + method);
+                }
+                constraints[i - 1] = ArgumentConstraints.all(parameter.toArray(new ArgumentConstraint[parameter.size()]));
+            }
+        }
+        return constraints;
+    }
+
     private static boolean isValidMethod(Method method) {
         return hasValidModifiers(method) && hasValidArguments(method) && hasCommandAnnotation(method);
     }
@@ -118,7 +211,20 @@ public final class AnnotatedCommandExecutorFactory {
                 && !Modifier.isStatic(mod) && Modifier.isPublic(mod);
     }
 
+    /**
+     * Returns true if the method takes a {@link CommandSource} followed by
+     * either {@link CommandArguments} or typed parameters that can be bound.
+     */
     public static boolean hasValidArguments(Method method) {
+        Class<?>[] params = method.getParameterTypes();
+        return hasArgumentsParameter(method)
+                || (params.length > 0 && CommandSource.class.equals(params[0]) && ParameterBinding.of(params) != null);
+    }
+
+    /**
+     * Returns true if the method takes {@code (CommandSource, CommandArguments)}.
+     */
+    public static boolean hasArgumentsParameter(Method method) {
         Class<?>[] params = method.getParameterTypes();
         return params.length == 2 && CommandSource.class.equals(params[0]) && CommandArguments.class.equals(params[1]);
     }
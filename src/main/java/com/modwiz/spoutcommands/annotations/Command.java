@@ -59,6 +59,32 @@ public @interface Command {
      * Returns the maximum number of args for this command
      */
     public int max() default -1;
+
+    /**
+     * Returns true if the command should run off the main thread
+     */
+    public boolean async() default false;
+
+    /**
+     * Returns true if quoted arguments and flags should be parsed
+     */
+    public boolean flags() default false;
+
+    /**
+     * Returns the milliseconds a sender has to wait between uses, 0 for none
+     */
+    public long cooldown() default 0;
+
+    /**
+     * Returns the number of uses a sender is allowed per rate period, 0 for
+     * no limit
+     */
+    public int rate() default 0;
+
+    /**
+     * Returns the length of the rate period in milliseconds
+     */
+    public long ratePeriod() default 1000;
 }
 
 
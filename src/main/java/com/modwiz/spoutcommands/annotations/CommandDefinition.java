@@ -0,0 +1,150 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.annotations;
+
+import com.modwiz.spoutcommands.ArgumentConstraint;
+
+/**
+ * The settings of a command as declared by a {@link Command} annotation,
+ * in a form generated registrars can build without reading annotations.
+ */
+public class CommandDefinition {
+    private final String[] aliases;
+    private String usage = "", desc = "";
+    private int min = 0, max = -1, rate = 0;
+    private long cooldown = 0, ratePeriod = 1000;
+    private boolean async, flags;
+    private ArgumentConstraint[] constraints = new ArgumentConstraint[0];
+
+    public CommandDefinition(String... aliases) {
+        if (aliases.length == 0) {
+            throw new IllegalArgumentException("A command needs at least one alias");
+        }
+        this.aliases = aliases.clone();
+    }
+
+    /**
+     * Returns a definition with the settings of the annotation.
+     */
+    public static CommandDefinition of(Command a) {
+        return new CommandDefinition(a.aliases())
+                .usage(a.usage())
+                .desc(a.desc())
+                .bounds(a.min(), a.max())
+                .async(a.async())
+                .flags(a.flags())
+                .cooldown(a.cooldown())
+                .rate(a.rate(), a.ratePeriod());
+    }
+
+    public CommandDefinition usage(String usage) {
+        this.usage = usage;
+        return this;
+    }
+
+    public CommandDefinition desc(String desc) {
+        this.desc = desc;
+        return this;
+    }
+
+    public CommandDefinition bounds(int min, int max) {
+        this.min = min;
+        this.max = max;
+        return this;
+    }
+
+    public CommandDefinition async(boolean async) {
+        this.async = async;
+        return this;
+    }
+
+    public CommandDefinition flags(boolean flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    public CommandDefinition cooldown(long cooldown) {
+        this.cooldown = cooldown;
+        return this;
+    }
+
+    public CommandDefinition rate(int rate, long ratePeriod) {
+        this.rate = rate;
+        this.ratePeriod = ratePeriod;
+        return this;
+    }
+
+    public CommandDefinition constraints(ArgumentConstraint... constraints) {
+        this.constraints = constraints.clone();
+        return this;
+    }
+
+    public String[] getAliases() {
+        return aliases.clone();
+    }
+
+    public String getUsage() {
+        return usage;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public boolean isFlags() {
+        return flags;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public long getRatePeriod() {
+        return ratePeriod;
+    }
+
+    public ArgumentConstraint[] getConstraints() {
+        return constraints.clone();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.annotations;
+
+import com.modwiz.spoutcommands.Executor;
+
+/**
+ * Registers the annotated command methods of a class without reflection.
+ * Implementations are generated at compile time by the
+ * {@code spoutcommands-processor} annotation processor as
+ * {@code <binary class name>$CommandRegistrar}, and picked up by
+ * {@link AnnotatedCommandExecutorFactory#register(Object, com.modwiz.spoutcommands.Command)}.
+ */
+public interface CommandRegistrar<T> {
+    /**
+     * Binds an executor for every annotated method of the instance.
+     */
+    public void register(T instance, Binder binder);
+
+    /**
+     * Receives the commands a registrar defines.
+     */
+    public interface Binder {
+        /**
+         * Creates or updates the command described by the definition and
+         * sets its executor.
+         */
+        public void bind(CommandDefinition definition, Executor executor);
+    }
+}
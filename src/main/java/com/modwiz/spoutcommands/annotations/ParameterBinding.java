@@ -0,0 +1,170 @@
+/*
+ * This file is part of SpoutAPI.
+ *
+ * Copyright (c) 2011-2012, Spout LLC <http://www.spout.org/>
+ * SpoutAPI is licensed under the Spout License Version 1.
+ *
+ * SpoutAPI is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * In addition, 180 days after any changes are published, you can use the
+ * software, incorporating those changes, under the terms of the MIT license,
+ * as described in the Spout License Version 1.
+ *
+ * SpoutAPI is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU Lesser General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License,
+ * the MIT license and the Spout License Version 1 along with this program.
+ * If not, see <http://www.gnu.org/licenses/> for the GNU Lesser General Public
+ * License and see <http://spout.in/licensev1> for the full license, including
+ * the MIT license.
+ */
+
+package com.modwiz.spoutcommands.annotations;
+
+import com.modwiz.spoutcommands.CommandArguments;
+import com.modwiz.spoutcommands.CommandSource;
+import org.bukkit.World;
+import org.bukkit.command.CommandException;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binds the arguments of a command to the typed parameters of an annotated
+ * method, such as {@code (CommandSource, Player target, int amount,
+ * String... reason)}. The converter for each parameter is chosen once when
+ * the method is registered; binding then reads every argument once, in
+ * order. A trailing {@code String[]} receives the remaining arguments.
+ */
+final class ParameterBinding {
+    private interface Converter {
+        Object convert(CommandArguments args, int index) throws CommandException;
+    }
+
+    private static final Map<Class<?>, Converter> CONVERTERS = new HashMap<Class<?>, Converter>();
+
+    static {
+        Converter string = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getString(index);
+            }
+        };
+        Converter integer = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getInteger(index);
+            }
+        };
+        Converter longs = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getLong(index);
+            }
+        };
+        Converter doubles = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getDouble(index);
+            }
+        };
+        Converter floats = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getFloat(index);
+            }
+        };
+        Converter booleans = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getBoolean(index);
+            }
+        };
+        Converter player = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getPlayer(index);
+            }
+        };
+        Converter world = new Converter() {
+            public Object convert(CommandArguments args, int index) {
+                return args.getWorld(index);
+            }
+        };
+
+        CONVERTERS.put(String.class, string);
+        CONVERTERS.put(int.class, integer);
+        CONVERTERS.put(Integer.class, integer);
+        CONVERTERS.put(long.class, longs);
+        CONVERTERS.put(Long.class, longs);
+        CONVERTERS.put(double.class, doubles);
+        CONVERTERS.put(Double.class, doubles);
+        CONVERTERS.put(float.class, floats);
+        CONVERTERS.put(Float.class, floats);
+        CONVERTERS.put(boolean.class, booleans);
+        CONVERTERS.put(Boolean.class, booleans);
+        CONVERTERS.put(Player.class, player);
+        CONVERTERS.put(World.class, world);
+    }
+
+    private final Converter[] converters;
+    private final boolean remaining;
+
+    private ParameterBinding(Converter[] converters, boolean remaining) {
+        this.converters = converters;
+        this.remaining = remaining;
+    }
+
+    /**
+     * Returns the binding for a method taking a {@link CommandSource}
+     * followed by the specified parameters, or null if one of them has no
+     * converter.
+     */
+    static ParameterBinding of(Class<?>[] params) {
+        if (params.length == 0) {
+            return null;
+        }
+        int count = params.length - 1;
+        boolean remaining = count >= 1 && params[count].equals(String[].class);
+        Converter[] converters = new Converter[remaining ? count - 1 : count];
+        for (int i = 0; i < converters.length; i++) {
+            converters[i] = CONVERTERS.get(params[i + 1]);
+            if (converters[i] == null) {
+                return null;
+            }
+        }
+        return new ParameterBinding(converters, remaining);
+    }
+
+    /**
+     * Returns the number of arguments every invocation needs.
+     */
+    int getMinArguments() {
+        return converters.length;
+    }
+
+    /**
+     * Returns the largest number of arguments accepted, or -1 if the
+     * remaining ones are collected.
+     */
+    int getMaxArguments() {
+        return remaining ? -1 : converters.length;
+    }
+
+    /**
+     * Returns the values of the method's parameters for an invocation.
+     *
+     * @throws CommandException if an argument cannot be converted
+     */
+    Object[] bind(CommandSource source, CommandArguments args) throws CommandException {
+        Object[] values = new Object[converters.length + (remaining ? 2 : 1)];
+        values[0] = source;
+        for (int i = 0; i < converters.length; i++) {
+            values[i + 1] = converters[i].convert(args, i);
+        }
+        if (remaining) {
+            values[values.length - 1] = args.getStrings(converters.length);
+        }
+        return values;
+    }
+}